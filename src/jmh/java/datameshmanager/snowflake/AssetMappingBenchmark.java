@@ -0,0 +1,62 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.client.model.Asset;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import snowflake.client.model.table.Table;
+import snowflake.client.model.view.View;
+
+/**
+ * Mapping of Snowflake tables and views to assets, and asset ID formatting. Run with {@code -prof gc} to compare the allocated
+ * bytes per operation ({@code gc.alloc.rate.norm}), as the mapping runs for every object of a crawl.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AssetMappingBenchmark {
+
+  @Param({"10", "200", "2000"})
+  int columns;
+
+  private SnowflakeAssetsProvider provider;
+  private Table table;
+  private View view;
+
+  @Setup
+  public void setUp() {
+    provider = new SnowflakeAssetsProvider(BenchmarkData.properties(null), null, SnowflakeAssetShards.all(),
+        new SimpleMeterRegistry());
+    table = BenchmarkData.convert(BenchmarkData.tableJson("ORDERS", columns), Table.class);
+    view = BenchmarkData.convert(BenchmarkData.viewJson("ORDERS_V", columns), View.class);
+  }
+
+  @Benchmark
+  public Optional<Asset> tableToAsset() {
+    return provider.tableToAsset(table);
+  }
+
+  @Benchmark
+  public Optional<Asset> viewToAsset() {
+    return provider.viewToAsset(view);
+  }
+
+  @Benchmark
+  public String tableId() {
+    return provider.toId(table);
+  }
+
+  @Benchmark
+  public String viewId() {
+    return provider.toId(view);
+  }
+
+}
@@ -0,0 +1,334 @@
+package datameshmanager.snowflake;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the Snowflake REST API endpoints the connector uses: databases, schemas, tables, views, roles, users
+ * and grants. Single tables and views can be fetched by name, whether they exist in the catalog or not.
+ * <p>
+ * The catalog is synthetic and never materialized: objects are numbered, and every listing is generated while it is written,
+ * so catalogs with millions of tables need no memory. Names are zero-padded, so they sort like their numbers and paging with
+ * {@code showLimit}/{@code fromName} works like in Snowflake. Every request waits for the configured latency, and a share of
+ * requests is rejected with 429 and {@code Retry-After}.
+ */
+class FakeSnowflakeServer implements AutoCloseable {
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+  private static final JsonFactory jsonFactory = objectMapper.getFactory();
+  private static final String CREATED_ON = "2024-01-01T00:00:00Z";
+
+  private final Catalog catalog;
+  private final Duration latency;
+  private final double throttleRate;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  private final Set<String> roles = ConcurrentHashMap.newKeySet();
+  private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+  private final LongAdder throttledCount = new LongAdder();
+  private final LongAdder grantCount = new LongAdder();
+
+  /**
+   * The shape of the synthetic catalog.
+   */
+  record Catalog(int databases, int schemasPerDatabase, int tablesPerSchema, int viewsPerSchema, int columnsPerTable, int users) {
+
+  }
+
+  FakeSnowflakeServer(Catalog catalog, Duration latency, double throttleRate, int threads) throws IOException {
+    this.catalog = catalog;
+    this.latency = latency;
+    this.throttleRate = throttleRate;
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.createContext("/api/v2/", this::handle);
+    this.server.setExecutor(executor);
+    this.server.start();
+  }
+
+  String baseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Request counts by endpoint, with object names replaced like in the connector's request metrics.
+   */
+  Map<String, Long> requestCounts() {
+    var counts = new TreeMap<String, Long>();
+    requestCounts.forEach((endpoint, count) -> counts.put(endpoint, count.sum()));
+    return counts;
+  }
+
+  long throttledCount() {
+    return throttledCount.sum();
+  }
+
+  long grantCount() {
+    return grantCount.sum();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      var path = exchange.getRequestURI().getRawPath();
+      var method = exchange.getRequestMethod();
+      requestCounts.computeIfAbsent(method + " " + SnowflakeRequestMetrics.endpoint(path), key -> new LongAdder()).increment();
+      var body = exchange.getRequestBody().readAllBytes();
+
+      sleep(latency);
+      if (throttleRate > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate) {
+        throttledCount.increment();
+        exchange.getResponseHeaders().add("Retry-After", "1");
+        exchange.sendResponseHeaders(429, -1);
+        return;
+      }
+
+      var segments = path.substring("/api/v2/".length()).split("/");
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = URLDecoder.decode(segments[i], StandardCharsets.UTF_8);
+      }
+      var query = query(exchange);
+      route(exchange, method, segments, query, body);
+    }
+  }
+
+  private void route(HttpExchange exchange, String method, String[] segments, Map<String, String> query, byte[] body)
+      throws IOException {
+    var collection = segments[0];
+    if (collection.equals("databases") && segments.length == 1) {
+      writeList(exchange, catalog.databases(), "DB_%03d", query, (json, name, i) -> {
+        json.writeStringField("name", name);
+        json.writeStringField("kind", "PERMANENT");
+        json.writeStringField("created_on", CREATED_ON);
+        json.writeStringField("owner", "SYSADMIN");
+      });
+    } else if (collection.equals("databases") && segments.length == 3 && segments[2].equals("schemas")) {
+      var database = segments[1];
+      writeList(exchange, catalog.schemasPerDatabase(), "SCHEMA_%03d", query, (json, name, i) -> {
+        json.writeStringField("name", name);
+        json.writeStringField("database_name", database);
+        json.writeStringField("kind", "PERMANENT");
+        json.writeStringField("created_on", CREATED_ON);
+        json.writeStringField("owner", "SYSADMIN");
+      });
+    } else if (collection.equals("databases") && segments.length == 5 && segments[4].equals("tables")) {
+      var deep = Boolean.parseBoolean(query.get("deep"));
+      writeList(exchange, catalog.tablesPerSchema(), "TABLE_%07d", query, (json, name, i) -> {
+        writeObject(json, segments[1], segments[3], name, deep);
+        json.writeStringField("table_type", "NORMAL");
+      });
+    } else if (collection.equals("databases") && segments.length == 5 && segments[4].equals("views")) {
+      var deep = Boolean.parseBoolean(query.get("deep"));
+      writeList(exchange, catalog.viewsPerSchema(), "VIEW_%05d", query, (json, name, i) -> {
+        writeObject(json, segments[1], segments[3], name, deep);
+        json.writeBooleanField("secure", false);
+      });
+    } else if (collection.equals("databases") && segments.length == 6 && segments[4].equals("tables")) {
+      writeJson(exchange, 200, json -> {
+        json.writeStartObject();
+        writeObject(json, segments[1], segments[3], segments[5], true);
+        json.writeStringField("table_type", "NORMAL");
+        json.writeEndObject();
+      });
+    } else if (collection.equals("databases") && segments.length == 6 && segments[4].equals("views")) {
+      writeJson(exchange, 200, json -> {
+        json.writeStartObject();
+        writeObject(json, segments[1], segments[3], segments[5], true);
+        json.writeBooleanField("secure", false);
+        json.writeEndObject();
+      });
+    } else if (collection.equals("roles") && segments.length == 1 && method.equals("GET")) {
+      var like = likePattern(query.get("like"));
+      writeJson(exchange, 200, json -> {
+        json.writeStartArray();
+        for (var role : roles) {
+          if (like == null || like.matcher(role).matches()) {
+            json.writeStartObject();
+            json.writeStringField("name", role);
+            json.writeStringField("owner", "USERADMIN");
+            json.writeEndObject();
+          }
+        }
+        json.writeEndArray();
+      });
+    } else if (collection.equals("roles") && segments.length == 1 && method.equals("POST")) {
+      roles.add(objectMapper.readTree(body).path("name").asText().toUpperCase(Locale.ROOT));
+      writeSuccess(exchange);
+    } else if (collection.equals("roles") && segments.length == 2 && method.equals("DELETE")) {
+      roles.remove(segments[1].toUpperCase(Locale.ROOT));
+      writeSuccess(exchange);
+    } else if ((collection.equals("roles") || collection.equals("users")) && segments.length == 3 && method.equals("POST")) {
+      grantCount.increment();
+      writeSuccess(exchange);
+    } else if (collection.equals("users") && segments.length == 1) {
+      writeJson(exchange, 200, json -> {
+        json.writeStartArray();
+        for (int i = 0; i < catalog.users(); i++) {
+          json.writeStartObject();
+          json.writeStringField("name", "USER_%06d".formatted(i));
+          json.writeStringField("email", "user%d@example.com".formatted(i));
+          json.writeEndObject();
+        }
+        json.writeEndArray();
+      });
+    } else {
+      exchange.sendResponseHeaders(404, -1);
+    }
+  }
+
+  private void writeObject(JsonGenerator json, String database, String schema, String name, boolean deep) throws IOException {
+    json.writeStringField("name", name);
+    json.writeStringField("database_name", database);
+    json.writeStringField("schema_name", schema);
+    json.writeStringField("kind", "PERMANENT");
+    json.writeStringField("comment", "Synthetic object " + name);
+    json.writeStringField("created_on", CREATED_ON);
+    json.writeStringField("owner", "SYSADMIN");
+    if (deep) {
+      json.writeArrayFieldStart("columns");
+      for (int c = 0; c < catalog.columnsPerTable(); c++) {
+        json.writeStartObject();
+        json.writeStringField("name", "COLUMN_%04d".formatted(c));
+        json.writeStringField("datatype", c % 2 == 0 ? "VARCHAR(16777216)" : "NUMBER(38,0)");
+        json.writeBooleanField("nullable", true);
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+    }
+  }
+
+  /**
+   * Writes the numbered objects, starting at {@code fromName} (inclusive, like Snowflake) and limited to {@code showLimit}.
+   */
+  private void writeList(HttpExchange exchange, int count, String nameFormat, Map<String, String> query, ObjectWriter objectWriter)
+      throws IOException {
+    int from = 0;
+    if (query.get("fromName") != null) {
+      from = Integer.parseInt(query.get("fromName").replaceAll("\\D", ""));
+    }
+    int to = count;
+    if (query.get("showLimit") != null) {
+      to = (int) Math.min(count, (long) from + Integer.parseInt(query.get("showLimit")));
+    }
+    var like = likePattern(query.get("like"));
+    int start = from;
+    int end = to;
+    writeJson(exchange, 200, json -> {
+      json.writeStartArray();
+      for (int i = start; i < end; i++) {
+        var name = nameFormat.formatted(i);
+        if (like != null && !like.matcher(name).matches()) {
+          continue;
+        }
+        json.writeStartObject();
+        objectWriter.write(json, name, i);
+        json.writeEndObject();
+      }
+      json.writeEndArray();
+    });
+  }
+
+  private static void writeSuccess(HttpExchange exchange) throws IOException {
+    writeJson(exchange, 200, json -> {
+      json.writeStartObject();
+      json.writeStringField("status", "Request successfully completed");
+      json.writeEndObject();
+    });
+  }
+
+  private static void writeJson(HttpExchange exchange, int status, JsonWriter writer) throws IOException {
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    var gzip = exchange.getRequestHeaders().getOrDefault("Accept-Encoding", List.of()).stream()
+        .anyMatch(value -> value.contains("gzip"));
+    if (gzip) {
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+    }
+    exchange.sendResponseHeaders(status, 0);
+    OutputStream responseBody = gzip ? new GZIPOutputStream(exchange.getResponseBody(), 8192) : exchange.getResponseBody();
+    try (responseBody; var json = jsonFactory.createGenerator(responseBody)) {
+      writer.write(json);
+    }
+  }
+
+  private static Pattern likePattern(String like) {
+    if (like == null || like.isEmpty()) {
+      return null;
+    }
+    var regex = new StringBuilder();
+    for (var c : like.toCharArray()) {
+      switch (c) {
+        case '%' -> regex.append(".*");
+        case '_' -> regex.append('.');
+        default -> regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+  }
+
+  private static Map<String, String> query(HttpExchange exchange) {
+    var query = new HashMap<String, String>();
+    var rawQuery = exchange.getRequestURI().getRawQuery();
+    if (rawQuery == null) {
+      return query;
+    }
+    for (var parameter : rawQuery.split("&")) {
+      var separator = parameter.indexOf('=');
+      if (separator > 0) {
+        query.put(parameter.substring(0, separator), URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return query;
+  }
+
+  private static void sleep(Duration duration) {
+    if (duration.isZero()) {
+      return;
+    }
+    try {
+      Thread.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @FunctionalInterface
+  private interface JsonWriter {
+
+    void write(JsonGenerator json) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface ObjectWriter {
+
+    void write(JsonGenerator json, String name, int index) throws IOException;
+  }
+
+}
@@ -0,0 +1,81 @@
+package datameshmanager.snowflake;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import snowflake.client.api.RoleApi;
+import snowflake.client.api.UserApi;
+import snowflake.client.model.role.Role;
+import snowflake.client.model.user.User;
+
+/**
+ * Filtering of large user and role listings. The caches expire immediately, so every lookup processes the full listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LookupBenchmark {
+
+  @Param({"1000", "50000"})
+  int size;
+
+  private SnowflakeUserIndex userIndex;
+  private SnowflakeRoleCatalog roleCatalog;
+  private List<String> emailAddresses;
+  private String roleName;
+  private String unmanagedRoleName;
+
+  @Setup
+  public void setUp() {
+    var users = new ArrayList<User>(size);
+    var roles = new ArrayList<Role>(size);
+    for (int i = 0; i < size; i++) {
+      users.add(BenchmarkData.convert(BenchmarkData.userJson(i), User.class));
+      roles.add(new Role().name("ACCESS_" + i));
+    }
+    var userApi = new UserApi(null) {
+      @Override
+      public List<User> listUsers(String like, String startsWith, Integer showLimit, String fromName) {
+        return users;
+      }
+    };
+    var roleApi = new RoleApi(null) {
+      @Override
+      public List<Role> listRoles(String like, String startsWith, Integer showLimit, String fromName) {
+        return roles;
+      }
+    };
+    userIndex = new SnowflakeUserIndex(userApi, Duration.ZERO, Duration.ZERO, Clock.systemUTC());
+    roleCatalog = new SnowflakeRoleCatalog(roleApi, Duration.ZERO, Duration.ZERO, Clock.systemUTC());
+    emailAddresses = List.of("user0@example.com", "User" + (size / 2) + "@Example.com", "unknown@example.com");
+    roleName = "access_" + (size - 1);
+    unmanagedRoleName = "ANALYST_" + (size - 1);
+  }
+
+  @Benchmark
+  public List<String> userNames() {
+    return userIndex.getUserNames(emailAddresses);
+  }
+
+  @Benchmark
+  public Optional<Role> managedRole() {
+    return roleCatalog.findRole(roleName);
+  }
+
+  @Benchmark
+  public Optional<Role> unmanagedRole() {
+    return roleCatalog.findRole(unmanagedRoleName);
+  }
+
+}
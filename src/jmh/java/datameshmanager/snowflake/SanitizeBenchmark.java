@@ -0,0 +1,28 @@
+package datameshmanager.snowflake;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Role name sanitizing of Data Mesh Manager IDs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SanitizeBenchmark {
+
+  @Param({"3f2b9c1e-7a4d-4b8e-9c2f-1d5e6a7b8c9d", "sales.orders/customer-360"})
+  String id;
+
+  @Benchmark
+  public String sanitize() {
+    return SnowflakeAccessManagementHandler.sanitize(id);
+  }
+
+}
@@ -0,0 +1,310 @@
+package datameshmanager.snowflake;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import datameshmanager.sdk.DataMeshManagerAssetsProvider.AssetCallback;
+import datameshmanager.sdk.client.model.Access;
+import datameshmanager.sdk.client.model.AccessActivatedEvent;
+import datameshmanager.sdk.client.model.Asset;
+import datameshmanager.sdk.client.model.DataProduct;
+import datameshmanager.sdk.client.model.Team;
+import datameshmanager.snowflake.SnowflakeProperties.AccessmanagementProperties;
+import datameshmanager.snowflake.SnowflakeProperties.AssetsProperties;
+import datameshmanager.snowflake.SnowflakeProperties.FilterProperties;
+import datameshmanager.snowflake.SnowflakeProperties.HttpProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the asset synchronization and the access management handler end to end against a {@link FakeSnowflakeServer}, and
+ * reports throughput, request counts, peak heap and allocation rate.
+ * <p>
+ * Run with {@code ./mvnw -Pbenchmark package exec:exec -Dbenchmark.main=datameshmanager.snowflake.SyncHarness
+ * -Dbenchmark.args="databases=10 tables=1000"}. Options are {@code key=value} pairs, see {@link #DEFAULTS}.
+ */
+public class SyncHarness {
+
+  private static final Map<String, String> DEFAULTS = Map.ofEntries(
+      Map.entry("databases", "10"),
+      Map.entry("schemas", "10"),
+      Map.entry("tables", "100"),
+      Map.entry("views", "10"),
+      Map.entry("columns", "20"),
+      Map.entry("users", "10000"),
+      Map.entry("latency", "PT0.02S"),
+      Map.entry("throttlerate", "0.01"),
+      Map.entry("concurrency", "8"),
+      Map.entry("pagesize", "0"),
+      Map.entry("publishbatchsize", "0"),
+      Map.entry("publishconcurrency", "1"),
+      Map.entry("runs", "1"),
+      Map.entry("columnrefreshinterval", ""),
+      Map.entry("includeschemas", ""),
+      Map.entry("excludeschemas", ""),
+      Map.entry("events", "200"),
+      Map.entry("eventconcurrency", "4"),
+      Map.entry("teammembers", "5")
+  );
+
+  public static void main(String[] args) throws Exception {
+    var options = new HashMap<>(DEFAULTS);
+    for (var arg : args) {
+      var separator = arg.indexOf('=');
+      if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator))) {
+        throw new IllegalArgumentException("Unknown option %s, expected one of %s".formatted(arg, DEFAULTS.keySet()));
+      }
+      options.put(arg.substring(0, separator), arg.substring(separator + 1));
+    }
+    System.out.println("Options: " + options);
+
+    var catalog = new FakeSnowflakeServer.Catalog(intOption(options, "databases"), intOption(options, "schemas"),
+        intOption(options, "tables"), intOption(options, "views"), intOption(options, "columns"), intOption(options, "users"));
+    var concurrency = intOption(options, "concurrency");
+    var columnRefreshInterval = options.get("columnrefreshinterval").isEmpty() ? null
+        : Duration.parse(options.get("columnrefreshinterval"));
+    // the two-phase crawl needs the fingerprints of the previous run
+    var fingerprintFile = columnRefreshInterval != null ? File.createTempFile("harness-fingerprints", ".tsv") : null;
+    if (fingerprintFile != null) {
+      fingerprintFile.deleteOnExit();
+      Files.delete(fingerprintFile.toPath());
+    }
+    try (var server = new FakeSnowflakeServer(catalog, Duration.parse(options.get("latency")),
+        Double.parseDouble(options.get("throttlerate")), Math.max(16, concurrency * 2))) {
+      var properties = new SnowflakeProperties("ORG-ACCOUNT", "DATAMESHMANAGER_CONNECTOR", BenchmarkData.privateKeyFile(), null,
+          server.baseUrl(), null, null,
+          new HttpProperties(concurrency * 2, concurrency * 2, null, null, null, concurrency, null, null),
+          new AssetsProperties(true, "snowflake-assets", null, concurrency, null, fingerprintFile, intOption(options, "pagesize"), null,
+              intOption(options, "publishbatchsize"), null, intOption(options, "publishconcurrency"), null, null, columnRefreshInterval,
+              new FilterProperties(null, null, listOption(options, "includeschemas"), listOption(options, "excludeschemas"), null, null),
+              null),
+          new AccessmanagementProperties(true, "snowflake-access-management", null, null, null, null, null, null, null, null, null, null),
+          List.of());
+
+      var application = new Application();
+      var meterRegistry = new SimpleMeterRegistry();
+      var connectionManager = application.snowflakeConnectionManager(properties);
+      try (var bearerTokenSupplier = application.bearerTokenSupplier(properties, meterRegistry);
+          var httpClient = application.snowflakeHttpClient(properties, connectionManager,
+              application.snowflakeRequestScheduler(properties, meterRegistry), meterRegistry)) {
+        var apiClient = application.snowflakeApiClient(properties, bearerTokenSupplier, httpClient);
+        var apis = application.snowflakeApis(apiClient);
+
+        var provider = new SnowflakeAssetsProvider(properties, apis, SnowflakeAssetShards.all(), meterRegistry);
+        for (int run = 1; run <= intOption(options, "runs"); run++) {
+          runAssets(server, provider, run);
+        }
+        runAccessManagement(server, apis, meterRegistry, options);
+      }
+    }
+  }
+
+  private static void runAssets(FakeSnowflakeServer server, SnowflakeAssetsProvider provider, int run) {
+    var sink = new CountingAssetSink();
+    var measurement = Measurement.start();
+    provider.fetchAssets(sink);
+    var result = measurement.stop();
+
+    System.out.println();
+    System.out.println("Asset synchronization, run " + run);
+    System.out.printf("  assets:       %d updated, %d deleted%n", sink.updated.sum(), sink.deleted.sum());
+    System.out.printf("  throughput:   %.0f assets/s%n", sink.updated.sum() / result.seconds());
+    printResources(result);
+    printRequests(server);
+  }
+
+  private static void runAccessManagement(FakeSnowflakeServer server, SnowflakeApis apis, SimpleMeterRegistry meterRegistry,
+      Map<String, String> options) throws Exception {
+    var events = intOption(options, "events");
+    var lookups = new SyntheticLookups(intOption(options, "teammembers"));
+    var roleCatalog = new SnowflakeRoleCatalog(apis, null);
+    var handler = new SnowflakeAccessManagementHandler(lookups, apis, new SnowflakeUserIndex(apis, null), roleCatalog,
+        new SnowflakeRestGrantExecutor(apis, roleCatalog, null), meterRegistry);
+    var grantsBefore = server.grantCount();
+    var executor = Executors.newFixedThreadPool(intOption(options, "eventconcurrency"));
+    var measurement = Measurement.start();
+    var futures = new ArrayList<Future<?>>();
+    for (int i = 0; i < events; i++) {
+      var event = BenchmarkData.convert(BenchmarkData.objectMapper().createObjectNode().put("id", "access-" + i),
+          AccessActivatedEvent.class);
+      futures.add(executor.submit(() -> handler.onAccessActivatedEvent(event)));
+    }
+    var failed = 0;
+    for (var future : futures) {
+      try {
+        future.get();
+      } catch (Exception e) {
+        failed++;
+      }
+    }
+    var result = measurement.stop();
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.MINUTES);
+    handler.close();
+
+    System.out.println();
+    System.out.println("Access management");
+    System.out.printf("  events:       %d processed, %d failed, %d grants%n", events - failed, failed, server.grantCount() - grantsBefore);
+    System.out.printf("  throughput:   %.1f events/s%n", events / result.seconds());
+    printResources(result);
+    printRequests(server);
+  }
+
+  private static void printResources(Measurement.Result result) {
+    System.out.printf("  duration:     %.1f s%n", result.seconds());
+    System.out.printf("  peak heap:    %d MB%n", result.peakHeapBytes() / (1024 * 1024));
+    System.out.printf("  allocation:   %.0f MB/s%n", result.allocatedBytes() / (1024.0 * 1024) / result.seconds());
+  }
+
+  private static List<String> listOption(Map<String, String> options, String key) {
+    var value = options.get(key);
+    return value.isEmpty() ? null : List.of(value.split(","));
+  }
+
+  private static void printRequests(FakeSnowflakeServer server) {
+    System.out.printf("  requests:     %s (throttled so far: %d)%n", server.requestCounts(), server.throttledCount());
+  }
+
+  private static int intOption(Map<String, String> options, String key) {
+    return Integer.parseInt(options.get(key));
+  }
+
+  /**
+   * Stand-in for the Data Mesh Manager side of the asset synchronization.
+   */
+  private static class CountingAssetSink implements AssetCallback {
+
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+
+    @Override
+    public void onAssetUpdated(Asset asset) {
+      updated.increment();
+    }
+
+    @Override
+    public void onAssetDeleted(String id) {
+      deleted.increment();
+    }
+  }
+
+  /**
+   * Stand-in for the Data Mesh Manager lookups: every access is a team consumer of the first schema of the first database.
+   */
+  private static class SyntheticLookups extends DataMeshManagerLookups {
+
+    private final int teamMembers;
+
+    SyntheticLookups(int teamMembers) {
+      super(null, null, null);
+      this.teamMembers = teamMembers;
+    }
+
+    @Override
+    public Access getAccess(String accessId) {
+      var json = BenchmarkData.objectMapper().createObjectNode().put("id", accessId);
+      json.putObject("info").put("active", true);
+      json.putObject("provider").put("dataProductId", "provider").put("outputPortId", "snowflake");
+      json.putObject("consumer").put("teamId", "team-" + Math.floorMod(accessId.hashCode(), 20));
+      return BenchmarkData.convert(json, Access.class);
+    }
+
+    @Override
+    public DataProduct getDataProduct(String dataProductId) {
+      var json = BenchmarkData.objectMapper().createObjectNode().put("id", dataProductId);
+      ObjectNode outputPort = json.putArray("outputPorts").addObject().put("id", "snowflake").put("type", "snowflake");
+      outputPort.putObject("server").put("account", "ORG-ACCOUNT").put("database", "DB_000").put("schema", "SCHEMA_000");
+      return BenchmarkData.convert(json, DataProduct.class);
+    }
+
+    @Override
+    public Team getTeam(String teamId) {
+      var json = BenchmarkData.objectMapper().createObjectNode().put("id", teamId);
+      var members = json.putArray("members");
+      for (int i = 0; i < teamMembers; i++) {
+        members.addObject().put("emailAddress", "user%d@example.com".formatted(Math.floorMod(teamId.hashCode() + i, 1000)));
+      }
+      return BenchmarkData.convert(json, Team.class);
+    }
+  }
+
+  /**
+   * Measures the wall time, the peak heap usage and the bytes allocated by all threads during a run. Thread allocations are
+   * sampled, so threads that start and end between two samples are missed.
+   */
+  private static class Measurement {
+
+    private final long start = System.nanoTime();
+    private final Map<Long, Long> allocatedByThread = new ConcurrentHashMap<>();
+    private final Map<Long, Long> allocatedByThreadAtStart;
+    private final Thread sampler;
+
+    private Measurement() {
+      ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+      allocatedByThreadAtStart = sampleAllocations();
+      sampler = new Thread(() -> {
+        while (!Thread.currentThread().isInterrupted()) {
+          allocatedByThread.putAll(sampleAllocations());
+          try {
+            Thread.sleep(50);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }, "harness-allocation-sampler");
+      sampler.setDaemon(true);
+      sampler.start();
+    }
+
+    static Measurement start() {
+      return new Measurement();
+    }
+
+    Result stop() {
+      var seconds = (System.nanoTime() - start) / 1e9;
+      sampler.interrupt();
+      allocatedByThread.putAll(sampleAllocations());
+      long allocated = 0;
+      for (var entry : allocatedByThread.entrySet()) {
+        allocated += entry.getValue() - allocatedByThreadAtStart.getOrDefault(entry.getKey(), 0L);
+      }
+      long peakHeap = 0;
+      for (var pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+          peakHeap += pool.getPeakUsage().getUsed();
+        }
+      }
+      return new Result(seconds, peakHeap, allocated);
+    }
+
+    private static Map<Long, Long> sampleAllocations() {
+      var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      var threadIds = threadMXBean.getAllThreadIds();
+      var allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadIds);
+      var allocations = new HashMap<Long, Long>(threadIds.length * 2);
+      for (int i = 0; i < threadIds.length; i++) {
+        if (allocatedBytes[i] >= 0) {
+          allocations.put(threadIds[i], allocatedBytes[i]);
+        }
+      }
+      return allocations;
+    }
+
+    record Result(double seconds, long peakHeapBytes, long allocatedBytes) {
+
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+package datameshmanager.snowflake;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Signing of key pair JWTs, and the cached token lookup of every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenSigningBenchmark {
+
+  private BearerTokenSupplier bearerTokenSupplier;
+
+  @Setup
+  public void setUp() throws Exception {
+    bearerTokenSupplier = new BearerTokenSupplier(BenchmarkData.properties(BenchmarkData.privateKeyFile()), new SimpleMeterRegistry());
+  }
+
+  @TearDown
+  public void tearDown() {
+    bearerTokenSupplier.close();
+  }
+
+  @Benchmark
+  public String signToken() {
+    return bearerTokenSupplier.signToken();
+  }
+
+  @Benchmark
+  public String cachedToken() {
+    return bearerTokenSupplier.get();
+  }
+
+}
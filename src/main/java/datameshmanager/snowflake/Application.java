@@ -1,12 +1,29 @@
 package datameshmanager.snowflake;
 
+import datameshmanager.sdk.DataMeshManagerAssetsProvider;
 import datameshmanager.sdk.DataMeshManagerAssetsSynchronizer;
 import datameshmanager.sdk.DataMeshManagerClient;
+import datameshmanager.sdk.DataMeshManagerEventHandler;
 import datameshmanager.sdk.DataMeshManagerEventListener;
+import datameshmanager.sdk.DataMeshManagerStateRepository;
 import datameshmanager.sdk.DataMeshManagerStateRepositoryRemote;
+import datameshmanager.snowflake.SnowflakeAccounts.SnowflakeAccount;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.ArrayList;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.context.annotation.Bean;
@@ -31,39 +48,198 @@ public class Application {
     return new DataMeshManagerClient(host, apiKey);
   }
 
+  @Bean(destroyMethod = "close")
+  public BearerTokenSupplier bearerTokenSupplier(SnowflakeProperties snowflakeProperties, MeterRegistry meterRegistry) {
+    return new BearerTokenSupplier(snowflakeProperties, meterRegistry);
+  }
+
+  @Bean(destroyMethod = "close")
+  public PoolingHttpClientConnectionManager snowflakeConnectionManager(SnowflakeProperties snowflakeProperties) {
+    var http = snowflakeProperties.http();
+    return PoolingHttpClientConnectionManagerBuilder.create()
+        .setMaxConnTotal(http.maxconnections())
+        .setMaxConnPerRoute(http.maxconnectionsperroute())
+        .setDefaultConnectionConfig(ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.of(http.connecttimeout()))
+            .setSocketTimeout(Timeout.of(http.readtimeout()))
+            .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+            .build())
+        .build();
+  }
+
+  @Bean
+  public SnowflakeRequestScheduler snowflakeRequestScheduler(SnowflakeProperties snowflakeProperties, MeterRegistry meterRegistry) {
+    var http = snowflakeProperties.http();
+    return new SnowflakeRequestScheduler(http.maxconcurrency(), http.maxattempts(), http.maxbackoff(), meterRegistry);
+  }
+
+  /**
+   * Shared HTTP client for the Snowflake REST API. Connections are pooled and kept alive, and gzip compressed responses are
+   * decompressed transparently. Requests are throttled and retried by the {@link SnowflakeRequestScheduler}.
+   */
+  @Bean(destroyMethod = "close")
+  public CloseableHttpClient snowflakeHttpClient(SnowflakeProperties snowflakeProperties,
+      PoolingHttpClientConnectionManager snowflakeConnectionManager, SnowflakeRequestScheduler snowflakeRequestScheduler,
+      MeterRegistry meterRegistry) {
+    var keepAlive = TimeValue.of(snowflakeProperties.http().keepalive());
+    return HttpClients.custom()
+        .setConnectionManager(snowflakeConnectionManager)
+        .addExecInterceptorFirst("snowflake-request-scheduler", snowflakeRequestScheduler)
+        .addExecInterceptorAfter("snowflake-request-scheduler", "snowflake-request-metrics", new SnowflakeRequestMetrics(meterRegistry))
+        .disableAutomaticRetries()
+        .setKeepAliveStrategy((response, context) -> keepAlive)
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setResponseTimeout(Timeout.of(snowflakeProperties.http().readtimeout()))
+            .build())
+        .evictExpiredConnections()
+        .evictIdleConnections(keepAlive)
+        .build();
+  }
+
+  @Bean
+  public SnowflakeHttpClientMetrics snowflakeHttpClientMetrics(PoolingHttpClientConnectionManager snowflakeConnectionManager) {
+    return new SnowflakeHttpClientMetrics(snowflakeConnectionManager);
+  }
+
   @Bean
-  public ApiClient snowflakeApiClient(SnowflakeProperties snowflakeProperties) {
-    ApiClient snowflakeApiClient = new ApiClient();
+  public ApiClient snowflakeApiClient(SnowflakeProperties snowflakeProperties, BearerTokenSupplier bearerTokenSupplier,
+      CloseableHttpClient snowflakeHttpClient) {
+    return apiClient(snowflakeProperties, bearerTokenSupplier, snowflakeHttpClient);
+  }
+
+  @Bean
+  public SnowflakeApis snowflakeApis(ApiClient snowflakeApiClient) {
+    return SnowflakeApis.of(snowflakeApiClient);
+  }
+
+  /**
+   * Creates a new API client for the account. The {@code @Bean} methods must not be called for other accounts, as the calls are
+   * proxied and return the connector's singleton.
+   */
+  private static ApiClient apiClient(SnowflakeProperties snowflakeProperties, BearerTokenSupplier bearerTokenSupplier,
+      CloseableHttpClient snowflakeHttpClient) {
+    ApiClient snowflakeApiClient = new ApiClient(snowflakeHttpClient);
     snowflakeApiClient.addDefaultHeader("X-Snowflake-Authorization-Token-Type", "KEYPAIR_JWT");
-    snowflakeApiClient.setBasePath("https://%s.snowflakecomputing.com".formatted(snowflakeProperties.account()));
-    snowflakeApiClient.setBearerToken(new BearerTokenSupplier(snowflakeProperties));
+    snowflakeApiClient.setBasePath(baseUrl(snowflakeProperties));
+    snowflakeApiClient.setBearerToken(bearerTokenSupplier);
     return snowflakeApiClient;
   }
 
+  private static SnowflakeSqlApiClient snowflakeSqlApiClient(SnowflakeProperties snowflakeProperties,
+      BearerTokenSupplier bearerTokenSupplier, CloseableHttpClient snowflakeHttpClient) {
+    return new SnowflakeSqlApiClient(baseUrl(snowflakeProperties), bearerTokenSupplier, snowflakeProperties.warehouse(),
+        snowflakeHttpClient);
+  }
+
+  private static int queueCapacity(SnowflakeProperties snowflakeProperties) {
+    var queueCapacity = snowflakeProperties.accessmanagement().queuecapacity();
+    return queueCapacity != null && queueCapacity > 0 ? queueCapacity : 100;
+  }
+
+  private static String baseUrl(SnowflakeProperties snowflakeProperties) {
+    if (snowflakeProperties.baseurl() != null && !snowflakeProperties.baseurl().isBlank()) {
+      return snowflakeProperties.baseurl();
+    }
+    return "https://%s.snowflakecomputing.com".formatted(snowflakeProperties.account());
+  }
+
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(value = "datameshmanager.client.snowflake.accessmanagement.enabled", havingValue = "true")
+  public SnowflakeAccessManagementHandler snowflakeAccessManagementHandler(
+      DataMeshManagerClient client,
+      SnowflakeProperties snowflakeProperties,
+      SnowflakeApis snowflakeApis,
+      BearerTokenSupplier bearerTokenSupplier,
+      CloseableHttpClient snowflakeHttpClient,
+      MeterRegistry meterRegistry) {
+    var userIndex = new SnowflakeUserIndex(snowflakeApis, snowflakeProperties.accessmanagement().usercachettl());
+    var roleCatalog = new SnowflakeRoleCatalog(snowflakeApis, snowflakeProperties.accessmanagement().rolecachettl());
+    var lookups = new DataMeshManagerLookups(client, snowflakeProperties.accessmanagement().lookupcachettl(),
+        snowflakeProperties.accessmanagement().lookupcachesize());
+    var grantExecutor = switch (snowflakeProperties.accessmanagement().backend()) {
+      case REST -> new SnowflakeRestGrantExecutor(snowflakeApis, roleCatalog,
+          snowflakeProperties.accessmanagement().grantparallelism());
+      case SQL -> new SnowflakeSqlGrantExecutor(snowflakeSqlApiClient(snowflakeProperties, bearerTokenSupplier, snowflakeHttpClient),
+          roleCatalog);
+    };
+    return new SnowflakeAccessManagementHandler(lookups, snowflakeApis, userIndex, roleCatalog, grantExecutor, meterRegistry);
+  }
+
+  /**
+   * Processes the access events in several partitions, if more than one partition is configured. As it is created for the event
+   * listener, it is closed after the listener is stopped.
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnExpression("${datameshmanager.client.snowflake.accessmanagement.enabled:false}"
+      + " && ${datameshmanager.client.snowflake.accessmanagement.partitions:1} > 1")
+  public PartitionedEventDispatcher partitionedEventDispatcher(
+      SnowflakeProperties snowflakeProperties,
+      SnowflakeAccessManagementHandler snowflakeAccessManagementHandler) {
+    return new PartitionedEventDispatcher(snowflakeAccessManagementHandler, snowflakeProperties.accessmanagement().partitions(),
+        queueCapacity(snowflakeProperties));
+  }
+
   @Bean(destroyMethod = "stop")
   @ConditionalOnProperty(value = "datameshmanager.client.snowflake.accessmanagement.enabled", havingValue = "true")
   public DataMeshManagerEventListener dataMeshManagerEventListener(
       DataMeshManagerClient client,
       SnowflakeProperties snowflakeProperties,
-      ApiClient snowflakeApiClient,
+      SnowflakeAccessManagementHandler snowflakeAccessManagementHandler,
+      ObjectProvider<PartitionedEventDispatcher> partitionedEventDispatcher,
       TaskExecutor taskExecutor) {
     var connectorId = snowflakeProperties.accessmanagement().connectorid();
-    var eventHandler = new SnowflakeAccessManagementHandler(client, snowflakeApiClient);
-    var stateRepository = new DataMeshManagerStateRepositoryRemote(connectorId, client);
+    DataMeshManagerEventHandler eventHandler = snowflakeAccessManagementHandler;
+    DataMeshManagerStateRepository stateRepository = new DataMeshManagerStateRepositoryRemote(connectorId, client);
+    var dispatcher = partitionedEventDispatcher.getIfAvailable();
+    if (dispatcher != null) {
+      stateRepository = dispatcher.stateRepository(stateRepository);
+      eventHandler = dispatcher;
+    }
     var dataMeshManagerEventListener = new DataMeshManagerEventListener(connectorId, "accessmanagement", client, eventHandler, stateRepository);
     taskExecutor.execute(dataMeshManagerEventListener::start);
     return dataMeshManagerEventListener;
   }
 
+  /**
+   * Reconciles the Snowflake grants with the accesses periodically, if access management is enabled and a reconciliation
+   * interval is configured.
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnExpression("${datameshmanager.client.snowflake.accessmanagement.enabled:false}"
+      + " && '${datameshmanager.client.snowflake.accessmanagement.reconcileinterval:}' != ''")
+  public SnowflakeGrantReconciler snowflakeGrantReconciler(
+      SnowflakeProperties snowflakeProperties,
+      SnowflakeAccessManagementHandler snowflakeAccessManagementHandler,
+      SnowflakeApis snowflakeApis,
+      BearerTokenSupplier bearerTokenSupplier,
+      CloseableHttpClient snowflakeHttpClient,
+      MeterRegistry meterRegistry) {
+    var accessmanagement = snowflakeProperties.accessmanagement();
+    var reconciler = new SnowflakeGrantReconciler(snowflakeAccessManagementHandler, snowflakeApis,
+        snowflakeSqlApiClient(snowflakeProperties, bearerTokenSupplier, snowflakeHttpClient), accessmanagement.reconciledryrun(),
+        meterRegistry);
+    reconciler.start(accessmanagement.reconcileinterval());
+    return reconciler;
+  }
+
   @Bean(destroyMethod = "stop")
   @ConditionalOnProperty(value = "datameshmanager.client.snowflake.assets.enabled", havingValue = "true")
   public DataMeshManagerAssetsSynchronizer dataMeshManagerAssetsSynchronizer(
       SnowflakeProperties snowflakeProperties,
       DataMeshManagerClient client,
-      ApiClient snowflakeApiClient,
+      SnowflakeAccounts snowflakeAccounts,
+      SnowflakeAssetShards snowflakeAssetShards,
+      CloseableHttpClient snowflakeHttpClient,
+      MeterRegistry meterRegistry,
       TaskExecutor taskExecutor) {
     var connectorId = snowflakeProperties.assets().connectorid();
-    var assetsProvider = new SnowflakeAssetsProvider(snowflakeProperties, snowflakeApiClient);
+    var providers = snowflakeAccounts.accounts().stream()
+        .map(account -> assetsProvider(account, snowflakeAssetShards, snowflakeHttpClient, meterRegistry))
+        .toList();
+    var assetsProvider = providers.size() == 1
+        ? providers.get(0)
+        : new MultiAccountAssetsProvider(snowflakeAccounts.accounts().stream().map(account -> account.properties().account()).toList(),
+            providers);
     var dataMeshManagerAssetsSynchronizer = new DataMeshManagerAssetsSynchronizer(connectorId, client, assetsProvider);
     if (snowflakeProperties.assets().pollinterval() != null) {
       dataMeshManagerAssetsSynchronizer.setDelay(snowflakeProperties.assets().pollinterval());
@@ -73,6 +249,51 @@ public class Application {
     return dataMeshManagerAssetsSynchronizer;
   }
 
+  private static DataMeshManagerAssetsProvider assetsProvider(SnowflakeAccount account, SnowflakeAssetShards snowflakeAssetShards,
+      CloseableHttpClient snowflakeHttpClient, MeterRegistry meterRegistry) {
+    var accountProperties = account.properties();
+    return switch (accountProperties.assets().engine()) {
+      case REST -> new SnowflakeAssetsProvider(accountProperties, account.apis(), snowflakeAssetShards, meterRegistry);
+      case SQL -> new SnowflakeSqlAssetsProvider(accountProperties, account.apis(),
+          snowflakeSqlApiClient(accountProperties, account.bearerTokenSupplier(), snowflakeHttpClient), snowflakeAssetShards,
+          meterRegistry);
+    };
+  }
+
+  /**
+   * The accounts whose assets are synchronized: the configured list of accounts, or else the account of the connector. Each
+   * listed account gets its own token supplier and API client on the shared HTTP client.
+   */
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(value = "datameshmanager.client.snowflake.assets.enabled", havingValue = "true")
+  public SnowflakeAccounts snowflakeAccounts(SnowflakeProperties snowflakeProperties, BearerTokenSupplier bearerTokenSupplier,
+      SnowflakeApis snowflakeApis, CloseableHttpClient snowflakeHttpClient, MeterRegistry meterRegistry) {
+    if (snowflakeProperties.accounts().isEmpty()) {
+      return SnowflakeAccounts.single(snowflakeProperties, bearerTokenSupplier, snowflakeApis);
+    }
+    var accounts = new ArrayList<SnowflakeAccount>();
+    for (var account : snowflakeProperties.accounts()) {
+      var accountProperties = snowflakeProperties.forAccount(account);
+      var accountTokenSupplier = new BearerTokenSupplier(accountProperties, meterRegistry);
+      var accountApis = SnowflakeApis.of(apiClient(accountProperties, accountTokenSupplier, snowflakeHttpClient));
+      accounts.add(new SnowflakeAccount(accountProperties, accountTokenSupplier, accountApis));
+    }
+    return SnowflakeAccounts.of(accounts);
+  }
+
+  @Bean(destroyMethod = "close")
+  @ConditionalOnProperty(value = "datameshmanager.client.snowflake.assets.enabled", havingValue = "true")
+  public SnowflakeAssetShards snowflakeAssetShards(SnowflakeProperties snowflakeProperties, DataMeshManagerClient client) {
+    var sharding = snowflakeProperties.assets().sharding();
+    return switch (sharding.mode()) {
+      case NONE -> SnowflakeAssetShards.all();
+      case STATIC -> SnowflakeAssetShards.fixed(sharding.replicas(), sharding.replicaindex());
+      case LEASE -> SnowflakeAssetShards.leased(
+          new DataMeshManagerStateRepositoryRemote(snowflakeProperties.assets().connectorid() + "-shards", client),
+          sharding.replicaid(), sharding.leasettl(), Clock.systemUTC());
+    };
+  }
+
   @Bean
   public SimpleAsyncTaskExecutor taskExecutor() {
     return new SimpleAsyncTaskExecutor();
@@ -0,0 +1,278 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.client.model.Asset;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists a content fingerprint per asset ID in a local file, so that unchanged assets can be skipped after a restart.
+ * <p>
+ * The file starts with a version line, followed by one line per asset with the hex encoded fingerprint, the database of the
+ * asset and the asset ID, separated by tabs. Backslashes and tabs in the database name are escaped, the ID is the rest of the
+ * line. The database is stored so that the owner of an asset can be determined without parsing the ID, in which database and
+ * schema names may contain any character. A line with {@code -} instead of a fingerprint removes the asset of an earlier line.
+ * Files of earlier versions have no version line and no database.
+ * <p>
+ * The fingerprints are loaded into a compact {@link FingerprintTable} without the asset IDs, which are streamed from the file
+ * again when needed with {@link #forEach(FingerprintConsumer)}. The fingerprints of a run are appended to a {@link Journal}
+ * that replaces the file once the run is saved, so they are not kept in memory either.
+ */
+public class AssetFingerprintStore {
+
+  private static final Logger log = LoggerFactory.getLogger(AssetFingerprintStore.class);
+
+  private static final String REMOVED = "-";
+  private static final String VERSION = "#fingerprints\t2";
+
+  private final Path file;
+
+  public AssetFingerprintStore(File file) {
+    this.file = file.toPath();
+  }
+
+  FingerprintTable load() {
+    var fingerprints = new FingerprintTable();
+    forEachLine((id, database, fingerprint) -> {
+      if (fingerprint == null) {
+        fingerprints.remove(FingerprintTable.hash(id));
+      } else {
+        fingerprints.put(FingerprintTable.hash(id), fingerprint);
+      }
+    });
+    if (fingerprints.size() == 0) {
+      log.info("No asset fingerprints found at {}, all assets will be synchronized", file);
+    }
+    return fingerprints;
+  }
+
+  /**
+   * Passes the asset IDs, databases and fingerprints of the file to the consumer, in the order of the file. An asset may be
+   * passed more than once, and removed assets are passed as well, so the consumer should check the ID against the loaded
+   * fingerprints. The database is {@code null} if it is unknown.
+   */
+  void forEach(FingerprintConsumer consumer) {
+    forEachLine((id, database, fingerprint) -> {
+      if (fingerprint != null) {
+        consumer.accept(id, database, fingerprint);
+      }
+    });
+  }
+
+  private void forEachLine(LineConsumer action) {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      var line = reader.readLine();
+      var withDatabase = VERSION.equals(line);
+      if (withDatabase) {
+        line = reader.readLine();
+      }
+      for (; line != null; line = reader.readLine()) {
+        var separator = line.indexOf('\t');
+        if (separator < 0) {
+          continue;
+        }
+        var fingerprint = line.substring(0, separator);
+        String database = null;
+        if (withDatabase) {
+          var databaseEnd = line.indexOf('\t', separator + 1);
+          if (databaseEnd < 0) {
+            continue;
+          }
+          database = unescape(line.substring(separator + 1, databaseEnd));
+          separator = databaseEnd;
+        }
+        var id = line.substring(separator + 1);
+        action.accept(id, database, fingerprint.equals(REMOVED) ? null : Long.parseUnsignedLong(fingerprint, 16));
+      }
+    } catch (NoSuchFileException e) {
+      // no fingerprints yet
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read asset fingerprints from " + file, e);
+    }
+  }
+
+  /**
+   * Starts writing the fingerprints of a new run to a temporary file next to the fingerprint file.
+   */
+  Journal begin() {
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      var tempFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+      var writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+      writer.write(VERSION);
+      writer.newLine();
+      return new Journal(tempFile, writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write asset fingerprints to " + file, e);
+    }
+  }
+
+  private static String escape(String database) {
+    if (database == null) {
+      return "";
+    }
+    return database.replace("\\", "\\\\").replace("\t", "\\t");
+  }
+
+  private static String unescape(String database) {
+    if (database.isEmpty()) {
+      return null;
+    }
+    if (database.indexOf('\\') < 0) {
+      return database;
+    }
+    var unescaped = new StringBuilder(database.length());
+    for (int i = 0; i < database.length(); i++) {
+      var c = database.charAt(i);
+      if (c == '\\' && i + 1 < database.length()) {
+        c = database.charAt(++i) == 't' ? '\t' : database.charAt(i);
+      }
+      unescaped.append(c);
+    }
+    return unescaped.toString();
+  }
+
+  @FunctionalInterface
+  interface FingerprintConsumer {
+
+    void accept(String id, String database, long fingerprint);
+  }
+
+  @FunctionalInterface
+  private interface LineConsumer {
+
+    void accept(String id, String database, Long fingerprint);
+  }
+
+  /**
+   * The fingerprints of a run, written to a temporary file that replaces the fingerprint file on {@link #commit()}. Closing an
+   * uncommitted journal deletes it. This class is not thread-safe.
+   */
+  class Journal implements AutoCloseable {
+
+    private final Path tempFile;
+    private final BufferedWriter writer;
+    private boolean closed;
+
+    private Journal(Path tempFile, BufferedWriter writer) {
+      this.tempFile = tempFile;
+      this.writer = writer;
+    }
+
+    /**
+     * Records the fingerprint of an asset of the database, which may be {@code null} if it is unknown.
+     */
+    void write(String id, String database, long fingerprint) {
+      writeLine(Long.toHexString(fingerprint), database, id);
+    }
+
+    void remove(String id) {
+      writeLine(REMOVED, null, id);
+    }
+
+    private void writeLine(String fingerprint, String database, String id) {
+      try {
+        writer.write(fingerprint);
+        writer.write('\t');
+        writer.write(escape(database));
+        writer.write('\t');
+        writer.write(id);
+        writer.newLine();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to write asset fingerprints to " + tempFile, e);
+      }
+    }
+
+    /**
+     * Replaces the fingerprint file with the journal.
+     */
+    void commit() {
+      try {
+        closed = true;
+        writer.close();
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to write asset fingerprints to " + file, e);
+      }
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        writer.close();
+        Files.deleteIfExists(tempFile);
+      } catch (IOException e) {
+        log.warn("Failed to delete {}", tempFile, e);
+      }
+    }
+  }
+
+  /**
+   * Computes a 64-bit fingerprint over everything that is sent to Data Mesh Manager for an asset.
+   */
+  public static long fingerprint(Asset asset) {
+    var digest = sha256();
+    update(digest, asset.getId());
+    var info = asset.getInfo();
+    if (info != null) {
+      update(digest, info.getName());
+      update(digest, info.getSource());
+      update(digest, info.getQualifiedName());
+      update(digest, info.getType());
+      update(digest, info.getStatus());
+      update(digest, info.getDescription());
+    }
+    if (asset.getProperties() != null) {
+      for (var property : new TreeMap<>(asset.getProperties()).entrySet()) {
+        update(digest, property.getKey());
+        update(digest, Objects.toString(property.getValue(), null));
+      }
+    }
+    if (asset.getColumns() != null) {
+      for (var column : asset.getColumns()) {
+        update(digest, column.getName());
+        update(digest, column.getType());
+        update(digest, column.getDescription());
+      }
+    }
+    return ByteBuffer.wrap(digest.digest()).getLong();
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    if (value != null) {
+      digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+    // separator, so that adjacent values cannot be shifted into each other
+    digest.update((byte) 0);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,242 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.DataMeshManagerAssetsProvider.AssetCallback;
+import datameshmanager.sdk.client.model.Asset;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Decouples the crawl from sending the assets to Data Mesh Manager.
+ * <p>
+ * Assets are collected into batches, which are handed to the delegate once they reach the batch size or the oldest asset has
+ * waited for the interval. At most {@code concurrency} batches are sent at the same time, and as many wait for a sender. When
+ * all are taken, the crawling threads block until a batch has been sent, so a fast crawl keeps a bounded number of assets in
+ * memory. With a concurrency above one, the delegate is invoked from several threads.
+ * <p>
+ * When sending a batch or running an {@link #afterSent(Runnable)} action fails, the remaining batches are discarded and the
+ * failure is rethrown to the crawl and by {@link #close()}. {@link #close()} sends the last batch and waits for all batches,
+ * so assets only count as sent afterwards. To record progress during a run, {@link #afterSent(Runnable)} runs an action once
+ * all assets passed before it are sent. This callback is thread-safe.
+ */
+class BatchingAssetPublisher implements AssetCallback, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchingAssetPublisher.class);
+
+  private final AssetCallback delegate;
+  private final int batchSize;
+  private final long intervalNanos;
+  private final Semaphore permits;
+  private final ExecutorService senders;
+  private final ScheduledExecutorService flusher;
+  private final Timer batchTimer;
+  private final Timer backpressureTimer;
+
+  private List<Operation> batch;
+  private List<Runnable> batchActions;
+  private long batchStartedNanos;
+  private long lastSequence;
+  private volatile RuntimeException failure;
+
+  private final ConcurrentSkipListSet<Long> inFlightSequences = new ConcurrentSkipListSet<>();
+  private final Queue<SequencedAction> pendingActions = new ArrayDeque<>();
+
+  BatchingAssetPublisher(AssetCallback delegate, int batchSize, Duration interval, int concurrency, MeterRegistry meterRegistry) {
+    this.delegate = delegate;
+    this.batchSize = Math.max(1, batchSize);
+    this.intervalNanos = interval.toNanos();
+    this.permits = new Semaphore(Math.max(1, concurrency) * 2);
+    var senderThreadFactory = new CustomizableThreadFactory("snowflake-assets-publish-");
+    senderThreadFactory.setDaemon(true);
+    this.senders = Executors.newFixedThreadPool(Math.max(1, concurrency), senderThreadFactory);
+    var flusherThreadFactory = new CustomizableThreadFactory("snowflake-assets-flush-");
+    flusherThreadFactory.setDaemon(true);
+    this.flusher = Executors.newSingleThreadScheduledExecutor(flusherThreadFactory);
+    var checkPeriodNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), intervalNanos / 4);
+    this.flusher.scheduleWithFixedDelay(this::flushExpired, checkPeriodNanos, checkPeriodNanos, TimeUnit.NANOSECONDS);
+    this.batchTimer = Timer.builder("snowflake.assets.publish.batches")
+        .description("Duration of sending a batch of assets to Data Mesh Manager")
+        .register(meterRegistry);
+    this.backpressureTimer = Timer.builder("snowflake.assets.publish.backpressure")
+        .description("Time the crawl waited for batches of assets to be sent")
+        .register(meterRegistry);
+  }
+
+  @Override
+  public void onAssetUpdated(Asset asset) {
+    add(new Operation(asset, null));
+  }
+
+  @Override
+  public void onAssetDeleted(String id) {
+    add(new Operation(null, id));
+  }
+
+  /**
+   * Runs the action once all assets passed before have been sent, on the thread that sent the last of them. Actions run in the
+   * order they were passed. If sending fails, the action is never run.
+   *
+   * @throws RuntimeException if sending or a previous action failed
+   */
+  synchronized void afterSent(Runnable action) {
+    if (batch != null) {
+      batchActions.add(action);
+      return;
+    }
+    synchronized (pendingActions) {
+      pendingActions.add(new SequencedAction(lastSequence, action));
+    }
+    runCompletedActions();
+    throwIfFailed();
+  }
+
+  private synchronized void add(Operation operation) {
+    throwIfFailed();
+    if (batch == null) {
+      batch = new ArrayList<>(batchSize);
+      batchActions = new ArrayList<>();
+      batchStartedNanos = System.nanoTime();
+    }
+    batch.add(operation);
+    if (batch.size() >= batchSize) {
+      submitBatch();
+    }
+  }
+
+  private synchronized void flushExpired() {
+    if (batch != null && System.nanoTime() - batchStartedNanos >= intervalNanos) {
+      try {
+        submitBatch();
+      } catch (RuntimeException e) {
+        // rethrown to the crawl by the next asset or by close()
+        log.debug("Could not submit expired batch", e);
+      }
+    }
+  }
+
+  /**
+   * Hands the current batch to a sender, waiting for a free permit if too many batches are pending. Called with the lock held,
+   * so the crawling threads wait as well.
+   */
+  private void submitBatch() {
+    var waitStart = System.nanoTime();
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting to publish assets", e);
+    }
+    backpressureTimer.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+    var operations = batch;
+    var sequence = ++lastSequence;
+    inFlightSequences.add(sequence);
+    synchronized (pendingActions) {
+      batchActions.forEach(action -> pendingActions.add(new SequencedAction(sequence, action)));
+    }
+    batch = null;
+    batchActions = null;
+    senders.execute(() -> {
+      try {
+        if (failure == null) {
+          batchTimer.record(() -> send(operations));
+        }
+      } catch (RuntimeException e) {
+        log.warn("Publishing a batch of {} assets failed, discarding the remaining batches", operations.size(), e);
+        failure = e;
+      } finally {
+        inFlightSequences.remove(sequence);
+        permits.release();
+      }
+      runCompletedActions();
+    });
+  }
+
+  /**
+   * Runs the actions whose batches, and all batches before them, have been sent. A failing action fails the publisher like a
+   * failed batch, as it may run on a sender thread where the exception would be lost.
+   */
+  private void runCompletedActions() {
+    synchronized (pendingActions) {
+      while (failure == null && !pendingActions.isEmpty()) {
+        var lowestInFlight = inFlightSequences.isEmpty() ? Long.MAX_VALUE : inFlightSequences.first();
+        if (pendingActions.peek().sequence() >= lowestInFlight) {
+          return;
+        }
+        try {
+          pendingActions.poll().action().run();
+        } catch (RuntimeException e) {
+          log.warn("Running an action after publishing assets failed, discarding the remaining batches", e);
+          failure = e;
+        }
+      }
+    }
+  }
+
+  private void send(List<Operation> operations) {
+    for (var operation : operations) {
+      if (operation.asset() != null) {
+        delegate.onAssetUpdated(operation.asset());
+      } else {
+        delegate.onAssetDeleted(operation.deletedId());
+      }
+    }
+  }
+
+  private void throwIfFailed() {
+    var currentFailure = failure;
+    if (currentFailure != null) {
+      throw new RuntimeException("Publishing assets to Data Mesh Manager failed", currentFailure);
+    }
+  }
+
+  /**
+   * Sends the last batch and waits until all batches are sent.
+   *
+   * @throws RuntimeException if a batch could not be sent
+   */
+  @Override
+  public void close() {
+    flusher.shutdownNow();
+    try {
+      synchronized (this) {
+        if (batch != null && failure == null) {
+          submitBatch();
+        }
+      }
+    } finally {
+      senders.shutdown();
+      try {
+        while (!senders.awaitTermination(1, TimeUnit.MINUTES)) {
+          log.info("Waiting for assets to be published");
+        }
+      } catch (InterruptedException e) {
+        senders.shutdownNow();
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while waiting for assets to be published", e);
+      }
+    }
+    throwIfFailed();
+  }
+
+  private record Operation(Asset asset, String deletedId) {
+
+  }
+
+  private record SequencedAction(long sequence, Runnable action) {
+
+  }
+
+}
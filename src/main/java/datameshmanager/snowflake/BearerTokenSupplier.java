@@ -2,6 +2,8 @@ package datameshmanager.snowflake;
 
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.io.File;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
@@ -11,60 +13,208 @@ import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.RSAPublicKeySpec;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Base64;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
-public class BearerTokenSupplier implements Supplier<String> {
+/**
+ * Supplies the key pair JWT for the Snowflake REST API.
+ * <p>
+ * The key material and the public key fingerprint are computed once, and a signed token is reused until it is within the
+ * refresh margin of its expiry. Tokens are refreshed by a background thread, so callers of {@link #get()} only sign a token
+ * themselves when the cached one is about to expire. The background thread also reloads the private key file when it has
+ * been modified, which allows rotating the key without a restart.
+ */
+public class BearerTokenSupplier implements Supplier<String>, AutoCloseable {
 
   private static final Logger log = LoggerFactory.getLogger(BearerTokenSupplier.class);
 
-  private final String account;
-  private final String user;
-  private RSAPrivateCrtKey privateKey;
+  private static final Duration DEFAULT_TOKEN_LIFETIME = Duration.ofHours(1);
+  /**
+   * Snowflake rejects key pair JWTs that are valid for more than one hour.
+   */
+  private static final Duration MAX_TOKEN_LIFETIME = Duration.ofHours(1);
+  private static final Duration DEFAULT_REFRESH_MARGIN = Duration.ofMinutes(5);
+  private static final Duration MAX_REFRESH_CHECK_INTERVAL = Duration.ofMinutes(1);
+  private static final Duration MIN_REFRESH_CHECK_INTERVAL = Duration.ofSeconds(1);
+  /**
+   * A cached token is not handed out this close to its expiry, so it does not expire on the way to Snowflake.
+   */
+  private static final Duration MAX_EXPIRY_SAFETY_MARGIN = Duration.ofSeconds(30);
+
+  private final String qualifiedUserName;
+  private final File privateKeyFile;
+  private final Duration tokenLifetime;
+  private final Duration refreshMargin;
+  private final Duration expirySafetyMargin;
+  private final Clock clock;
+  private final ScheduledExecutorService refresher;
+  private final Timer signingTimer;
+
+  private volatile KeyMaterial keyMaterial;
+  private volatile Token token;
+
+  public BearerTokenSupplier(SnowflakeProperties snowflakeProperties, MeterRegistry meterRegistry) {
+    this(snowflakeProperties, meterRegistry, Clock.systemUTC());
+  }
 
-  public BearerTokenSupplier(SnowflakeProperties snowflakeProperties) {
-    this.account = snowflakeProperties.account();
-    this.user = snowflakeProperties.user();
-    privateKey = readPrivateKey(snowflakeProperties.privatekeyfile());
+  BearerTokenSupplier(SnowflakeProperties snowflakeProperties, MeterRegistry meterRegistry, Clock clock) {
+    this.qualifiedUserName = snowflakeProperties.account().toUpperCase(Locale.ROOT)
+        + "."
+        + snowflakeProperties.user().toUpperCase(Locale.ROOT);
+    this.privateKeyFile = snowflakeProperties.privatekeyfile();
+    this.tokenLifetime = snowflakeProperties.tokenlifetime() != null ? snowflakeProperties.tokenlifetime() : DEFAULT_TOKEN_LIFETIME;
+    this.refreshMargin = snowflakeProperties.tokenrefreshmargin() != null
+        ? snowflakeProperties.tokenrefreshmargin() : DEFAULT_REFRESH_MARGIN;
+    if (tokenLifetime.compareTo(MAX_TOKEN_LIFETIME) > 0) {
+      throw new IllegalArgumentException("The token lifetime must be at most %s".formatted(MAX_TOKEN_LIFETIME));
+    }
+    if (refreshMargin.isNegative() || refreshMargin.isZero()) {
+      throw new IllegalArgumentException("The token refresh margin must be positive");
+    }
+    if (refreshMargin.compareTo(tokenLifetime) >= 0) {
+      throw new IllegalArgumentException("The token refresh margin must be shorter than the token lifetime");
+    }
+    var halfLifetime = tokenLifetime.dividedBy(2);
+    this.expirySafetyMargin = halfLifetime.compareTo(MAX_EXPIRY_SAFETY_MARGIN) < 0 ? halfLifetime : MAX_EXPIRY_SAFETY_MARGIN;
+    this.clock = clock;
+    this.signingTimer = Timer.builder("snowflake.jwt.signing")
+        .description("Time to sign a key pair JWT")
+        .register(meterRegistry);
+    this.keyMaterial = readKeyMaterial(privateKeyFile, qualifiedUserName);
+    this.token = generateBearerToken(keyMaterial);
+
+    var refreshCheckInterval = refreshMargin.dividedBy(2);
+    if (refreshCheckInterval.compareTo(MAX_REFRESH_CHECK_INTERVAL) > 0) {
+      refreshCheckInterval = MAX_REFRESH_CHECK_INTERVAL;
+    }
+    if (refreshCheckInterval.compareTo(MIN_REFRESH_CHECK_INTERVAL) < 0) {
+      refreshCheckInterval = MIN_REFRESH_CHECK_INTERVAL;
+    }
+    var threadFactory = new CustomizableThreadFactory("snowflake-token-");
+    threadFactory.setDaemon(true);
+    this.refresher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    this.refresher.scheduleWithFixedDelay(this::refreshInBackground, refreshCheckInterval.toMillis(), refreshCheckInterval.toMillis(),
+        TimeUnit.MILLISECONDS);
   }
 
   @Override
   public String get() {
-    return generateBearerToken();
+    var current = token;
+    if (isUsable(current)) {
+      return current.value();
+    }
+    return refreshExpiredToken();
   }
 
-  public String generateBearerToken() {
+  /**
+   * Signs a new token without caching it.
+   */
+  String signToken() {
+    return generateBearerToken(keyMaterial).value();
+  }
+
+  @Override
+  public void close() {
+    refresher.shutdownNow();
+  }
+
+  /**
+   * Fallback for when the background refresh did not keep up, e.g. because signing failed. Concurrent callers wait for the
+   * first one to sign a new token instead of signing one each.
+   */
+  private synchronized String refreshExpiredToken() {
+    var current = token;
+    if (isUsable(current)) {
+      return current.value();
+    }
+    token = generateBearerToken(keyMaterial);
+    return token.value();
+  }
+
+  private boolean isUsable(Token token) {
+    return clock.instant().isBefore(token.expiresAt().minus(expirySafetyMargin));
+  }
+
+  private void refreshInBackground() {
     try {
+      reloadPrivateKeyIfModified();
+      var current = token;
+      if (!clock.instant().isBefore(current.expiresAt().minus(refreshMargin))) {
+        log.debug("Refreshing JWT for user {}", qualifiedUserName);
+        var refreshed = generateBearerToken(keyMaterial);
+        synchronized (this) {
+          token = refreshed;
+        }
+      }
+    } catch (Exception e) {
+      log.warn("Failed to refresh JWT for user {}, retrying", qualifiedUserName, e);
+    }
+  }
+
+  private void reloadPrivateKeyIfModified() {
+    var lastModified = privateKeyFile.lastModified();
+    if (lastModified == keyMaterial.lastModified()) {
+      return;
+    }
+    log.info("Private key file {} was modified, reloading", privateKeyFile);
+    var reloaded = readKeyMaterial(privateKeyFile, qualifiedUserName);
+    var refreshed = generateBearerToken(reloaded);
+    synchronized (this) {
+      keyMaterial = reloaded;
+      token = refreshed;
+    }
+  }
+
+  private Token generateBearerToken(KeyMaterial keyMaterial) {
+    try {
+      var issuedTs = clock.instant();
+      var expiresTs = issuedTs.plus(tokenLifetime);
+
+      log.debug("Generating JWT for user {}", qualifiedUserName);
+      var value = signingTimer.record(() -> JWT.create()
+          .withIssuer(keyMaterial.issuer())
+          .withSubject(qualifiedUserName)
+          .withIssuedAt(Date.from(issuedTs))
+          .withExpiresAt(Date.from(expiresTs))
+          .sign(keyMaterial.algorithm()));
+      return new Token(value, expiresTs);
+    } catch (Exception e) {
+      throw new RuntimeException("Failed to generate JWT", e);
+    }
+  }
+
+  /**
+   * Derives the public key, its fingerprint and the signing algorithm from a P8 file
+   *
+   * @param file a private key P8 file
+   * @param qualifiedUserName the account qualified user name
+   * @return KeyMaterial instance
+   */
+  private static KeyMaterial readKeyMaterial(File file, String qualifiedUserName) {
+    try {
+      var lastModified = file.lastModified();
+      var privateKey = readPrivateKey(file);
       RSAPublicKeySpec publicKeySpec =
           new RSAPublicKeySpec(privateKey.getModulus(), privateKey.getPublicExponent());
       KeyFactory keyFactory = KeyFactory.getInstance("RSA");
       RSAPublicKey publicKey = (RSAPublicKey) keyFactory.generatePublic(publicKeySpec);
-      Algorithm algorithm = Algorithm.RSA256(publicKey, privateKey);
-
-      var qualifiedUserName =
-          account.toUpperCase(Locale.ROOT)
-              + "."
-              + user.toUpperCase(Locale.ROOT);
 
       MessageDigest digest = MessageDigest.getInstance("SHA-256");
       var publicKeyFp =
           "SHA256:" + Base64.getEncoder().encodeToString(digest.digest(publicKey.getEncoded()));
 
-      var issuedTs = new Date();
-      var expiresTs = new Date(issuedTs.getTime() + TimeUnit.HOURS.toMillis(1));
-
-      log.debug("Generating JWT for user {}", qualifiedUserName);
-      return JWT.create()
-          .withIssuer(qualifiedUserName + "." + publicKeyFp)
-          .withSubject(qualifiedUserName)
-          .withIssuedAt(issuedTs)
-          .withExpiresAt(expiresTs)
-          .sign(algorithm);
+      return new KeyMaterial(Algorithm.RSA256(publicKey, privateKey), qualifiedUserName + "." + publicKeyFp, lastModified);
     } catch (Exception e) {
       throw new RuntimeException("Failed to generate JWT", e);
     }
@@ -95,4 +245,12 @@ public class BearerTokenSupplier implements Supplier<String> {
     }
   }
 
+  private record KeyMaterial(Algorithm algorithm, String issuer, long lastModified) {
+
+  }
+
+  private record Token(String value, Instant expiresAt) {
+
+  }
+
 }
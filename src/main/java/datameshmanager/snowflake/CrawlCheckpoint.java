@@ -0,0 +1,164 @@
+package datameshmanager.snowflake;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the progress of an asset synchronization run in a local file, so that a run interrupted by a restart is resumed
+ * instead of starting over.
+ * <p>
+ * The file starts with the run ID and start time, followed by one line per completed database or schema. A line is only
+ * appended once all assets of the database or schema have been sent, so a resumed run skips exactly the work that is done and
+ * emits nothing twice. The file is deleted when a run completes.
+ * <p>
+ * This class is thread-safe.
+ */
+class CrawlCheckpoint {
+
+  private static final Logger log = LoggerFactory.getLogger(CrawlCheckpoint.class);
+
+  private static final String RUN = "run";
+  private static final String DATABASE = "database";
+  private static final String SCHEMA = "schema";
+
+  private final Path file;
+  private final Consumer<Runnable> afterSent;
+  private final String runId;
+  private final boolean resumed;
+  private final Set<String> completedDatabases = ConcurrentHashMap.newKeySet();
+  private final Set<String> completedSchemas = ConcurrentHashMap.newKeySet();
+
+  private CrawlCheckpoint(Path file, Consumer<Runnable> afterSent, String runId, boolean resumed) {
+    this.file = file;
+    this.afterSent = afterSent;
+    this.runId = runId;
+    this.resumed = resumed;
+  }
+
+  /**
+   * A checkpoint that records nothing, for runs without a checkpoint file.
+   */
+  static CrawlCheckpoint disabled() {
+    return new CrawlCheckpoint(null, Runnable::run, null, false);
+  }
+
+  /**
+   * Resumes the run recorded in the file, or starts a new run if there is none.
+   *
+   * @param afterSent runs an action once all assets passed to the asset callback so far have been sent
+   */
+  static CrawlCheckpoint open(File file, Consumer<Runnable> afterSent) {
+    var path = file.toPath();
+    try {
+      var lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+      if (!lines.isEmpty() && lines.get(0).startsWith(RUN + "\t")) {
+        var header = lines.get(0).split("\t");
+        var checkpoint = new CrawlCheckpoint(path, afterSent, header[1], true);
+        for (var line : lines.subList(1, lines.size())) {
+          checkpoint.load(line);
+        }
+        log.info("Resuming asset synchronization run {} started at {}, skipping {} completed databases and {} completed schemas",
+            checkpoint.runId, header.length > 2 ? header[2] : "unknown", checkpoint.completedDatabases.size(),
+            checkpoint.completedSchemas.size());
+        return checkpoint;
+      }
+    } catch (NoSuchFileException e) {
+      // no interrupted run
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read asset synchronization checkpoint from " + path, e);
+    }
+
+    var checkpoint = new CrawlCheckpoint(path, afterSent, UUID.randomUUID().toString(), false);
+    checkpoint.write(StandardOpenOption.TRUNCATE_EXISTING, RUN, checkpoint.runId, Instant.now().toString());
+    log.info("Starting asset synchronization run {}", checkpoint.runId);
+    return checkpoint;
+  }
+
+  String runId() {
+    return runId;
+  }
+
+  /**
+   * Whether this run continues an interrupted run. Assets of the skipped databases and schemas are not passed to the callback
+   * again, so a resumed run must not conclude that assets it did not see are deleted.
+   */
+  boolean resumed() {
+    return resumed;
+  }
+
+  boolean isDatabaseCompleted(String database) {
+    return completedDatabases.contains(database);
+  }
+
+  boolean isSchemaCompleted(String database, String schema) {
+    return completedDatabases.contains(database) || completedSchemas.contains(database + "\t" + schema);
+  }
+
+  void databaseCompleted(String database) {
+    if (file != null) {
+      afterSent.accept(() -> {
+        completedDatabases.add(database);
+        write(StandardOpenOption.APPEND, DATABASE, database);
+      });
+    }
+  }
+
+  void schemaCompleted(String database, String schema) {
+    if (file != null) {
+      afterSent.accept(() -> {
+        completedSchemas.add(database + "\t" + schema);
+        write(StandardOpenOption.APPEND, SCHEMA, database, schema);
+      });
+    }
+  }
+
+  /**
+   * Deletes the checkpoint after a complete run, so the next run starts from the beginning.
+   */
+  void finish() {
+    if (file == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to delete asset synchronization checkpoint " + file, e);
+    }
+  }
+
+  private void load(String line) {
+    var fields = line.split("\t");
+    if (fields.length == 2 && fields[0].equals(DATABASE)) {
+      completedDatabases.add(fields[1]);
+    } else if (fields.length == 3 && fields[0].equals(SCHEMA)) {
+      completedSchemas.add(fields[1] + "\t" + fields[2]);
+    }
+  }
+
+  private synchronized void write(StandardOpenOption mode, String... fields) {
+    try {
+      var parent = file.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      Files.writeString(file, String.join("\t", fields) + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, mode);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write asset synchronization checkpoint to " + file, e);
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.DataMeshManagerClient;
+import datameshmanager.sdk.client.model.Access;
+import datameshmanager.sdk.client.model.DataProduct;
+import datameshmanager.sdk.client.model.Team;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes the Data Mesh Manager lookups of the access management handler.
+ * <p>
+ * Within an event scope, opened with {@link #openScope()} on the thread that processes the event, every entity is fetched at
+ * most once. Data products and teams are additionally kept in an optional shared tier for a short TTL, bounded to a maximum
+ * number of entries with least-recently-used eviction. Accesses are never shared between events, as their state is what the
+ * events are about.
+ */
+public class DataMeshManagerLookups {
+
+  private static final int DEFAULT_SHARED_CACHE_SIZE = 1000;
+
+  private final DataMeshManagerClient client;
+  private final Duration sharedTtl;
+  private final Clock clock;
+  private final Map<String, SharedEntry> shared;
+  private final ThreadLocal<Map<String, Object>> eventScope = new ThreadLocal<>();
+
+  public DataMeshManagerLookups(DataMeshManagerClient client, Duration sharedTtl, Integer sharedCacheSize) {
+    this(client, sharedTtl, sharedCacheSize != null ? sharedCacheSize : DEFAULT_SHARED_CACHE_SIZE, Clock.systemUTC());
+  }
+
+  DataMeshManagerLookups(DataMeshManagerClient client, Duration sharedTtl, int sharedCacheSize, Clock clock) {
+    this.client = client;
+    this.sharedTtl = sharedTtl != null && !sharedTtl.isZero() && !sharedTtl.isNegative() ? sharedTtl : null;
+    this.clock = clock;
+    this.shared = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, SharedEntry> eldest) {
+        return size() > sharedCacheSize;
+      }
+    };
+  }
+
+  /**
+   * Opens the event scope for the current thread. Nested calls join the scope that is already open.
+   */
+  public Scope openScope() {
+    if (eventScope.get() != null) {
+      return () -> {
+      };
+    }
+    eventScope.set(new HashMap<>());
+    return eventScope::remove;
+  }
+
+  public Access getAccess(String accessId) {
+    return lookup("access:" + accessId, false, () -> client.getAccessApi().getAccess(accessId));
+  }
+
+  /**
+   * All accesses, fetched directly and never cached.
+   */
+  public List<Access> getAccesses() {
+    return client.getAccessApi().getAccesses();
+  }
+
+  public DataProduct getDataProduct(String dataProductId) {
+    return lookup("dataproduct:" + dataProductId, true, () -> client.getDataProductsApi().getDataProduct(dataProductId));
+  }
+
+  public Team getTeam(String teamId) {
+    return lookup("team:" + teamId, true, () -> client.getTeamsApi().getTeam(teamId));
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T lookup(String key, boolean shareable, Supplier<T> loader) {
+    var scope = eventScope.get();
+    if (scope != null && scope.containsKey(key)) {
+      return (T) scope.get(key);
+    }
+
+    T value = null;
+    var useSharedTier = shareable && sharedTtl != null;
+    if (useSharedTier) {
+      value = (T) getShared(key);
+    }
+    if (value == null) {
+      value = loader.get();
+      if (useSharedTier && value != null) {
+        putShared(key, value);
+      }
+    }
+
+    if (scope != null) {
+      scope.put(key, value);
+    }
+    return value;
+  }
+
+  private Object getShared(String key) {
+    synchronized (shared) {
+      var entry = shared.get(key);
+      if (entry == null) {
+        return null;
+      }
+      if (!clock.instant().isBefore(entry.loadedAt().plus(sharedTtl))) {
+        shared.remove(key);
+        return null;
+      }
+      return entry.value();
+    }
+  }
+
+  private void putShared(String key, Object value) {
+    synchronized (shared) {
+      shared.put(key, new SharedEntry(value, clock.instant()));
+    }
+  }
+
+  public interface Scope extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  private record SharedEntry(Object value, Instant loadedAt) {
+
+  }
+
+}
@@ -0,0 +1,180 @@
+package datameshmanager.snowflake;
+
+/**
+ * Maps asset IDs, by their 64-bit {@link #hash(String)}, to 64-bit values such as fingerprints, and marks entries as seen for
+ * mark-and-sweep deletion detection.
+ * <p>
+ * The entries are kept in two primitive arrays with open addressing and linear probing, plus one bit per slot for the seen
+ * mark, so an entry takes between about 22 and 43 bytes depending on the load, which is kept below 3/4. An entry of a
+ * {@code HashMap<String, Long>} with a typical asset ID takes well over 150 bytes. The ID itself is not kept, it is read back
+ * from the fingerprint file when needed.
+ * <p>
+ * Two IDs share a hash with a probability of about n²/2⁶⁵, i.e. once in ten million runs for two million assets. The second
+ * asset is then taken for the first: it may be skipped once as unchanged, or its deletion detected one run late.
+ * <p>
+ * This class is not thread-safe. Concurrent reads are safe as long as no thread modifies the table.
+ */
+class FingerprintTable {
+
+  /**
+   * Marks an empty slot. {@link #hash(String)} never returns it.
+   */
+  private static final long EMPTY = 0;
+
+  private long[] keys;
+  private long[] values;
+  private long[] seen;
+  private int size;
+
+  FingerprintTable() {
+    this(16);
+  }
+
+  FingerprintTable(int expectedSize) {
+    allocate(Math.max(16, Integer.highestOneBit(Math.max(1, expectedSize) * 4 / 3) << 1));
+  }
+
+  /**
+   * FNV-1a over the UTF-16 code units of the ID, followed by the MurmurHash3 finalizer, without encoding the ID to bytes.
+   */
+  static long hash(String id) {
+    var hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < id.length(); i++) {
+      hash ^= id.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash != EMPTY ? hash : 1;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean contains(long key) {
+    return keys[slot(key)] == key;
+  }
+
+  /**
+   * The value of the key, or {@code missingValue} if the table does not contain the key.
+   */
+  long get(long key, long missingValue) {
+    var slot = slot(key);
+    return keys[slot] == key ? values[slot] : missingValue;
+  }
+
+  void put(long key, long value) {
+    var slot = slot(key);
+    if (keys[slot] == key) {
+      values[slot] = value;
+      return;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+    if (size * 4L > keys.length * 3L) {
+      rehash(keys.length * 2);
+    }
+  }
+
+  void remove(long key) {
+    var slot = slot(key);
+    if (keys[slot] != key) {
+      return;
+    }
+    // shift the following entries of the probe sequence back, so that lookups do not stop at the gap
+    var mask = keys.length - 1;
+    var gap = slot;
+    var next = (gap + 1) & mask;
+    while (keys[next] != EMPTY) {
+      var home = home(keys[next]);
+      if (((next - home) & mask) >= ((next - gap) & mask)) {
+        keys[gap] = keys[next];
+        values[gap] = values[next];
+        setSeen(gap, isSeenAt(next));
+        gap = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[gap] = EMPTY;
+    values[gap] = 0;
+    setSeen(gap, false);
+    size--;
+  }
+
+  /**
+   * Marks the entry of the key as seen.
+   *
+   * @return whether the table contains the key and the entry was not marked before
+   */
+  boolean markSeen(long key) {
+    var slot = slot(key);
+    if (keys[slot] != key || isSeenAt(slot)) {
+      return false;
+    }
+    setSeen(slot, true);
+    return true;
+  }
+
+  boolean isSeen(long key) {
+    var slot = slot(key);
+    return keys[slot] == key && isSeenAt(slot);
+  }
+
+  /**
+   * The slot of the key, or the empty slot where it would be inserted.
+   */
+  private int slot(long key) {
+    var mask = keys.length - 1;
+    var slot = home(key);
+    while (keys[slot] != EMPTY && keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private int home(long key) {
+    return (int) key & (keys.length - 1);
+  }
+
+  private boolean isSeenAt(int slot) {
+    return (seen[slot >>> 6] & (1L << slot)) != 0;
+  }
+
+  private void setSeen(int slot, boolean value) {
+    if (value) {
+      seen[slot >>> 6] |= 1L << slot;
+    } else {
+      seen[slot >>> 6] &= ~(1L << slot);
+    }
+  }
+
+  private void rehash(int capacity) {
+    var oldKeys = keys;
+    var oldValues = values;
+    var oldSeen = seen;
+    allocate(capacity);
+    for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+      if (oldKeys[oldSlot] == EMPTY) {
+        continue;
+      }
+      var slot = slot(oldKeys[oldSlot]);
+      keys[slot] = oldKeys[oldSlot];
+      values[slot] = oldValues[oldSlot];
+      if ((oldSeen[oldSlot >>> 6] & (1L << oldSlot)) != 0) {
+        setSeen(slot, true);
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    seen = new long[Math.max(1, capacity >>> 6)];
+  }
+
+}
@@ -0,0 +1,142 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.DataMeshManagerAssetsProvider.AssetCallback;
+import datameshmanager.sdk.client.model.Asset;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Only forwards assets that are new or have changed since the previous run, based on the fingerprints of the previous run.
+ * Assets that were seen in the previous run, but not in this one, are reported as deleted by {@link #deleteMissingAssets}.
+ * <p>
+ * The fingerprints of the previous run are kept in a {@link FingerprintTable}, which also marks the assets seen in this run.
+ * The fingerprints of this run are written to a journal of the {@link AssetFingerprintStore} right away, so memory does not
+ * grow with the assets of the run. Close the callback to discard the journal of a run that was not saved.
+ * <p>
+ * This callback is thread-safe.
+ */
+class IncrementalAssetCallback implements AssetCallback, AutoCloseable {
+
+  private final AssetCallback delegate;
+  private final AssetFingerprintStore store;
+  private final FingerprintTable previousFingerprints;
+  private final AssetFingerprintStore.Journal journal;
+
+  private final AtomicLong updated = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong deleted = new AtomicLong();
+
+  IncrementalAssetCallback(AssetCallback delegate, AssetFingerprintStore store) {
+    this.delegate = delegate;
+    this.store = store;
+    this.previousFingerprints = store.load();
+    this.journal = store.begin();
+  }
+
+  @Override
+  public void onAssetUpdated(Asset asset) {
+    var fingerprint = AssetFingerprintStore.fingerprint(asset);
+    var key = FingerprintTable.hash(asset.getId());
+    var database = asset.getProperties() != null ? Objects.toString(asset.getProperties().get("database"), null) : null;
+    if (previousFingerprints.get(key, ~fingerprint) == fingerprint) {
+      record(asset.getId(), database, key, fingerprint);
+      skipped.incrementAndGet();
+      return;
+    }
+    // only recorded once the asset is passed on, so a failed upload is not taken for unchanged in a later run
+    delegate.onAssetUpdated(asset);
+    record(asset.getId(), database, key, fingerprint);
+    updated.incrementAndGet();
+  }
+
+  /**
+   * Keeps the fingerprint of the previous run for an asset that is known to be unchanged, without building the asset again.
+   * Returns false if the asset is unknown, so it must be passed to {@link #onAssetUpdated(Asset)} instead.
+   */
+  boolean onAssetUnchanged(String id, String database) {
+    var key = FingerprintTable.hash(id);
+    if (!previousFingerprints.contains(key)) {
+      return false;
+    }
+    record(id, database, key, previousFingerprints.get(key, 0));
+    skipped.incrementAndGet();
+    return true;
+  }
+
+  @Override
+  public void onAssetDeleted(String id) {
+    synchronized (this) {
+      journal.remove(id);
+      previousFingerprints.markSeen(FingerprintTable.hash(id));
+    }
+    delegate.onAssetDeleted(id);
+    deleted.incrementAndGet();
+  }
+
+  private synchronized void record(String id, String database, long key, long fingerprint) {
+    journal.write(id, database, fingerprint);
+    previousFingerprints.markSeen(key);
+  }
+
+  /**
+   * Reports all assets of the previous run as deleted that were neither updated nor deleted in this run. Must only be called
+   * after a complete run. Assets outside the database scope, e.g. of databases that moved to another replica, are forgotten
+   * instead. The scope is passed {@code null} for assets of an unknown database.
+   * <p>
+   * The IDs are read back from the fingerprint file of the previous run, as the table only keeps their hashes.
+   */
+  void deleteMissingAssets(Predicate<String> databaseScope) {
+    store.forEach((id, database, fingerprint) -> {
+      var key = FingerprintTable.hash(id);
+      boolean missing;
+      synchronized (this) {
+        missing = previousFingerprints.contains(key) && !previousFingerprints.isSeen(key) && databaseScope.test(database);
+        if (missing) {
+          previousFingerprints.markSeen(key);
+        }
+      }
+      if (missing) {
+        delegate.onAssetDeleted(id);
+        deleted.incrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Stores the fingerprints after a complete run.
+   */
+  void saveFingerprints() {
+    journal.commit();
+  }
+
+  /**
+   * Stores the fingerprints after an incomplete run: assets that were not visited keep their previous fingerprint, so they
+   * are still detected as deleted by a later complete run.
+   */
+  void saveFingerprintsOfIncompleteRun() {
+    synchronized (this) {
+      store.forEach((id, database, fingerprint) -> {
+        var key = FingerprintTable.hash(id);
+        if (previousFingerprints.markSeen(key)) {
+          journal.write(id, database, previousFingerprints.get(key, fingerprint));
+        }
+      });
+    }
+    journal.commit();
+  }
+
+  @Override
+  public void close() {
+    journal.close();
+  }
+
+  SyncStatistics statistics() {
+    return new SyncStatistics(updated.get(), skipped.get(), deleted.get());
+  }
+
+  record SyncStatistics(long updated, long skipped, long deleted) {
+
+  }
+
+}
@@ -0,0 +1,69 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.DataMeshManagerAssetsProvider;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Synchronizes the assets of several Snowflake accounts concurrently, one thread per account.
+ * <p>
+ * The accounts share the HTTP client, so the total number of Snowflake requests stays bounded by the
+ * {@link SnowflakeRequestScheduler}, which also shares its limit fairly between the accounts. A failing account does not stop
+ * the others; the failure is rethrown once all accounts are done.
+ */
+public class MultiAccountAssetsProvider implements DataMeshManagerAssetsProvider {
+
+  private static final Logger log = LoggerFactory.getLogger(MultiAccountAssetsProvider.class);
+
+  private final List<String> accountNames;
+  private final List<DataMeshManagerAssetsProvider> providers;
+
+  public MultiAccountAssetsProvider(List<String> accountNames, List<DataMeshManagerAssetsProvider> providers) {
+    this.accountNames = List.copyOf(accountNames);
+    this.providers = List.copyOf(providers);
+  }
+
+  @Override
+  public void fetchAssets(AssetCallback assetCallback) {
+    var synchronizedAssetCallback = new SnowflakeAssetsProvider.SynchronizedAssetCallback(assetCallback);
+    var executor = Executors.newFixedThreadPool(providers.size(), new CustomizableThreadFactory("snowflake-accounts-"));
+    try {
+      var futures = new ArrayList<CompletableFuture<Void>>(providers.size());
+      for (int i = 0; i < providers.size(); i++) {
+        var accountName = accountNames.get(i);
+        var provider = providers.get(i);
+        futures.add(CompletableFuture.runAsync(() -> {
+          log.info("Synchronizing assets of account {}", accountName);
+          provider.fetchAssets(synchronizedAssetCallback);
+        }, executor));
+      }
+
+      RuntimeException failure = null;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).join();
+        } catch (CompletionException e) {
+          log.warn("Asset synchronization of account {} failed", accountNames.get(i), e.getCause());
+          var cause = e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+          if (failure == null) {
+            failure = cause;
+          } else {
+            failure.addSuppressed(cause);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
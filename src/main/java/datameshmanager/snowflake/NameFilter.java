@@ -0,0 +1,110 @@
+package datameshmanager.snowflake;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Include and exclude rules for the names of databases, schemas, tables or views.
+ * <p>
+ * A rule is a glob with {@code *} for any characters and {@code ?} for a single character, e.g. {@code SCRATCH_*}, or a regular
+ * expression prefixed with {@code regex:}, e.g. {@code regex:STG_\d+}. Rules match the whole name, ignoring case like Snowflake
+ * does for unquoted identifiers. A name is included if it matches any include rule, or there are none, and no exclude rule. The
+ * rules of each kind are compiled into a single pattern once.
+ */
+class NameFilter {
+
+  private static final String REGEX_PREFIX = "regex:";
+
+  private static final NameFilter ALL = new NameFilter(null, null, null);
+
+  private final Pattern includes;
+  private final Pattern excludes;
+  private final String like;
+
+  private NameFilter(Pattern includes, Pattern excludes, String like) {
+    this.includes = includes;
+    this.excludes = excludes;
+    this.like = like;
+  }
+
+  static NameFilter of(List<String> includes, List<String> excludes) {
+    var includePattern = compile(includes);
+    var excludePattern = compile(excludes);
+    if (includePattern == null && excludePattern == null) {
+      return ALL;
+    }
+    var like = includes != null && includes.size() == 1 ? toLike(includes.get(0).trim()) : null;
+    return new NameFilter(includePattern, excludePattern, like);
+  }
+
+  boolean matches(String name) {
+    if (name == null) {
+      return includes == null;
+    }
+    return (includes == null || includes.matcher(name).matches()) && (excludes == null || !excludes.matcher(name).matches());
+  }
+
+  /**
+   * A pattern for the {@code like} parameter of the Snowflake list calls, so that Snowflake only returns candidates for the
+   * include rule, or {@code null} if the rules cannot be pushed down. Exclude rules are never pushed down.
+   * <p>
+   * The pattern may match more names than the rule, as {@code _} and {@code %} in a glob are wildcards in {@code LIKE}, so the
+   * listed names must still be checked with {@link #matches(String)}. {@code startsWith} is not used, because Snowflake
+   * compares it case-sensitively.
+   */
+  String like() {
+    return like;
+  }
+
+  private static Pattern compile(List<String> rules) {
+    if (rules == null) {
+      return null;
+    }
+    var alternatives = new ArrayList<String>();
+    for (var rule : rules) {
+      var trimmedRule = rule.trim();
+      if (trimmedRule.isEmpty()) {
+        continue;
+      }
+      if (trimmedRule.startsWith(REGEX_PREFIX)) {
+        alternatives.add("(?:" + trimmedRule.substring(REGEX_PREFIX.length()) + ")");
+      } else {
+        alternatives.add(globToRegex(trimmedRule));
+      }
+    }
+    if (alternatives.isEmpty()) {
+      return null;
+    }
+    return Pattern.compile(String.join("|", alternatives), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+  }
+
+  private static String globToRegex(String glob) {
+    var regex = new StringBuilder();
+    var literal = new StringBuilder();
+    for (int i = 0; i < glob.length(); i++) {
+      var c = glob.charAt(i);
+      if (c == '*' || c == '?') {
+        if (!literal.isEmpty()) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '*' ? ".*" : ".");
+      } else {
+        literal.append(c);
+      }
+    }
+    if (!literal.isEmpty()) {
+      regex.append(Pattern.quote(literal.toString()));
+    }
+    return "(?:" + regex + ")";
+  }
+
+  private static String toLike(String rule) {
+    if (rule.isEmpty() || rule.startsWith(REGEX_PREFIX)) {
+      return null;
+    }
+    return rule.replace('*', '%').replace('?', '_');
+  }
+
+}
@@ -0,0 +1,231 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.DataMeshManagerEventHandler;
+import datameshmanager.sdk.DataMeshManagerStateRepository;
+import datameshmanager.sdk.client.model.AccessActivatedEvent;
+import datameshmanager.sdk.client.model.AccessDeactivatedEvent;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Processes access events concurrently, partitioned by access ID.
+ * <p>
+ * Events of the same access are always processed by the same partition, in the order they were received, so an activation is
+ * processed before a later deactivation. Each partition has a bounded queue; when it is full, the event listener is blocked
+ * until the partition catches up.
+ * <p>
+ * As the listener considers an event done when the handler returns, the state it saves must not be committed right away. The
+ * {@link #stateRepository(DataMeshManagerStateRepository) state repository} of this dispatcher only commits a state once all
+ * events that were received before it have been processed. After a restart, events after the last committed state are
+ * processed again. An event whose processing fails is logged and counts as processed, like in the sequential listener.
+ * <p>
+ * On {@link #close()}, the queued events are processed for up to {@link #DRAIN_TIMEOUT} and the state up to them is committed.
+ * Events that are not processed by then are processed again after a restart.
+ */
+public class PartitionedEventDispatcher implements DataMeshManagerEventHandler, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(PartitionedEventDispatcher.class);
+
+  static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+  private final DataMeshManagerEventHandler delegate;
+  private final ThreadPoolExecutor[] partitions;
+
+  private final Object sequenceLock = new Object();
+  private long lastSequence;
+  private final ConcurrentSkipListSet<Long> inFlightSequences = new ConcurrentSkipListSet<>();
+
+  private volatile CommittingStateRepository stateRepository;
+  /**
+   * Set when the partitions are stopped, after which events that complete are no longer counted as processed, as they may
+   * have been interrupted.
+   */
+  private volatile boolean stopped;
+
+  public PartitionedEventDispatcher(DataMeshManagerEventHandler delegate, int partitionCount, int queueCapacity) {
+    this.delegate = delegate;
+    this.partitions = new ThreadPoolExecutor[partitionCount];
+    var threadFactory = new CustomizableThreadFactory("snowflake-events-");
+    threadFactory.setDaemon(true);
+    for (int i = 0; i < partitionCount; i++) {
+      partitions[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory,
+          PartitionedEventDispatcher::waitForCapacity);
+    }
+  }
+
+  /**
+   * Wraps the state repository of the event listener, so that the saved state only advances past events that are fully
+   * processed.
+   */
+  public DataMeshManagerStateRepository stateRepository(DataMeshManagerStateRepository stateRepository) {
+    this.stateRepository = new CommittingStateRepository(stateRepository);
+    return this.stateRepository;
+  }
+
+  @Override
+  public void onAccessActivatedEvent(AccessActivatedEvent event) {
+    dispatch(event.getId(), () -> delegate.onAccessActivatedEvent(event));
+  }
+
+  @Override
+  public void onAccessDeactivatedEvent(AccessDeactivatedEvent event) {
+    dispatch(event.getId(), () -> delegate.onAccessDeactivatedEvent(event));
+  }
+
+  private void dispatch(String accessId, Runnable processing) {
+    long sequence;
+    synchronized (sequenceLock) {
+      sequence = ++lastSequence;
+      inFlightSequences.add(sequence);
+    }
+    var partition = partitions[Math.floorMod(accessId.hashCode(), partitions.length)];
+    partition.execute(() -> {
+      try {
+        processing.run();
+      } catch (Exception e) {
+        log.error("Failed to process event for access {}", accessId, e);
+      } finally {
+        if (!stopped) {
+          inFlightSequences.remove(sequence);
+          commitProcessed();
+        }
+      }
+    });
+  }
+
+  @Override
+  public void close() {
+    for (var partition : partitions) {
+      partition.shutdown();
+    }
+    try {
+      var deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+      for (var partition : partitions) {
+        if (!partition.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+          log.warn("Access events were not processed within {}, they are processed again after a restart", DRAIN_TIMEOUT);
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      stopped = true;
+      for (var partition : partitions) {
+        partition.shutdownNow();
+      }
+      commitProcessed();
+    }
+  }
+
+  private void commitProcessed() {
+    var committingStateRepository = stateRepository;
+    if (committingStateRepository == null) {
+      return;
+    }
+    try {
+      committingStateRepository.commitProcessed();
+    } catch (Exception e) {
+      log.warn("Failed to save the event listener state, retrying with the next event", e);
+    }
+  }
+
+  /**
+   * The sequence up to which all dispatched events are processed.
+   */
+  private long processedSequence() {
+    synchronized (sequenceLock) {
+      var firstInFlight = inFlightSequences.isEmpty() ? null : inFlightSequences.first();
+      return firstInFlight != null ? firstInFlight - 1 : lastSequence;
+    }
+  }
+
+  private long lastSequence() {
+    synchronized (sequenceLock) {
+      return lastSequence;
+    }
+  }
+
+  /**
+   * Blocks the submitting thread until the partition queue has capacity again.
+   */
+  private static void waitForCapacity(Runnable task, ThreadPoolExecutor executor) {
+    if (executor.isShutdown()) {
+      throw new RejectedExecutionException("The event dispatcher is closed");
+    }
+    try {
+      executor.getQueue().put(task);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting for the event queue", e);
+    }
+  }
+
+  private class CommittingStateRepository implements DataMeshManagerStateRepository {
+
+    private final DataMeshManagerStateRepository delegate;
+    private final Deque<PendingState> pendingStates = new ArrayDeque<>();
+
+    CommittingStateRepository(DataMeshManagerStateRepository delegate) {
+      this.delegate = delegate;
+    }
+
+    /**
+     * Returns the latest saved state, even if it is not committed yet, so the listener continues after the events it has
+     * already dispatched.
+     */
+    @Override
+    public synchronized Map<String, Object> getState() {
+      var latest = pendingStates.peekLast();
+      if (latest != null) {
+        return new HashMap<>(latest.state());
+      }
+      return delegate.getState();
+    }
+
+    @Override
+    public synchronized void saveState(Map<String, Object> state) {
+      pendingStates.addLast(new PendingState(lastSequence(), new HashMap<>(state)));
+      commitProcessed();
+    }
+
+    /**
+     * Saves the latest state whose events are all processed. The pending states are only removed once the save succeeded, so a
+     * failed save is retried with the next event.
+     */
+    synchronized void commitProcessed() {
+      var processedSequence = processedSequence();
+      PendingState committable = null;
+      var committableCount = 0;
+      for (var pendingState : pendingStates) {
+        if (pendingState.sequence() > processedSequence) {
+          break;
+        }
+        committable = pendingState;
+        committableCount++;
+      }
+      if (committable == null) {
+        return;
+      }
+      delegate.saveState(committable.state());
+      for (int i = 0; i < committableCount; i++) {
+        pendingStates.pollFirst();
+      }
+    }
+  }
+
+  private record PendingState(long sequence, Map<String, Object> state) {
+
+  }
+
+}
@@ -1,6 +1,5 @@
 package datameshmanager.snowflake;
 
-import datameshmanager.sdk.DataMeshManagerClient;
 import datameshmanager.sdk.DataMeshManagerEventHandler;
 import datameshmanager.sdk.client.ApiException;
 import datameshmanager.sdk.client.model.Access;
@@ -11,64 +10,214 @@ import datameshmanager.sdk.client.model.DataProductOutputPortsInner;
 import datameshmanager.sdk.client.model.DataProductOutputPortsInnerServer;
 import datameshmanager.sdk.client.model.Team;
 import datameshmanager.sdk.client.model.TeamMembersInner;
+import datameshmanager.snowflake.SnowflakeGrant.CreateRole;
+import datameshmanager.snowflake.SnowflakeGrant.DatabaseSchemasUsage;
+import datameshmanager.snowflake.SnowflakeGrant.RoleToRole;
+import datameshmanager.snowflake.SnowflakeGrant.RoleToUser;
+import datameshmanager.snowflake.SnowflakeGrant.SchemaObjectsSelect;
+import datameshmanager.snowflake.SnowflakeGrantExecutor.GrantResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import snowflake.client.ApiClient;
-import snowflake.client.api.RoleApi;
-import snowflake.client.api.SchemaApi;
-import snowflake.client.api.UserApi;
-import snowflake.client.model.role.ContainingScope;
-import snowflake.client.model.role.Grant;
-import snowflake.client.model.role.Role;
-import snowflake.client.model.role.Securable;
 import snowflake.client.model.schema.SchemaInfo;
-import snowflake.client.model.user.User;
 
-public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHandler {
+public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHandler, AutoCloseable {
 
   private static final Logger log = LoggerFactory.getLogger(SnowflakeAccessManagementHandler.class);
 
-  private final DataMeshManagerClient client;
-  private final ApiClient snowflakeApiClient;
+  private static final int ACCESS_LOCK_STRIPES = 64;
+
+  private final DataMeshManagerLookups lookups;
+  private final SnowflakeApis snowflakeApis;
+  private final SnowflakeUserIndex userIndex;
+  private final SnowflakeRoleCatalog roleCatalog;
+  private final SnowflakeGrantExecutor grantExecutor;
+  private final MeterRegistry meterRegistry;
+
+  /**
+   * Serialize the processing of an access between the events and the {@link SnowflakeGrantReconciler}, striped by access ID.
+   */
+  private final ReentrantLock[] accessLocks = new ReentrantLock[ACCESS_LOCK_STRIPES];
+  /**
+   * The {@link System#nanoTime()} at which the last event of each access was processed.
+   */
+  private final Map<String, Long> accessEventNanos = new ConcurrentHashMap<>();
 
   public SnowflakeAccessManagementHandler(
-      DataMeshManagerClient client, ApiClient snowflakeApiClient) {
-    this.client = client;
-    this.snowflakeApiClient = snowflakeApiClient;
+      DataMeshManagerLookups lookups, SnowflakeApis snowflakeApis, SnowflakeUserIndex userIndex, SnowflakeRoleCatalog roleCatalog,
+      SnowflakeGrantExecutor grantExecutor, MeterRegistry meterRegistry) {
+    this.lookups = lookups;
+    this.snowflakeApis = snowflakeApis;
+    this.userIndex = userIndex;
+    this.roleCatalog = roleCatalog;
+    this.grantExecutor = grantExecutor;
+    this.meterRegistry = meterRegistry;
+    for (int i = 0; i < accessLocks.length; i++) {
+      accessLocks[i] = new ReentrantLock();
+    }
+  }
+
+  DataMeshManagerLookups lookups() {
+    return lookups;
+  }
+
+  SnowflakeRoleCatalog roleCatalog() {
+    return roleCatalog;
   }
 
+  SnowflakeGrantExecutor grantExecutor() {
+    return grantExecutor;
+  }
+
+  /**
+   * Closes the grant executor.
+   */
   @Override
-  public void onAccessActivatedEvent(AccessActivatedEvent event) {
-    log.info("Processing AccessActivatedEvent {}", event.getId());
-    var access = getAccess(event.getId());
-    if (!isApplicable(access)) {
-      log.info("Access {} is not applicable for Snowflake access management", access.getId());
-      return;
+  public void close() {
+    grantExecutor.close();
+  }
+
+  /**
+   * Runs the action while holding the locks of all the accesses, so that no event of these accesses is processed meanwhile.
+   */
+  <T> T withAccessLocks(Collection<String> accessIds, Supplier<T> action) {
+    var stripes = new TreeSet<Integer>();
+    accessIds.forEach(accessId -> stripes.add(stripe(accessId)));
+    var locked = new ArrayList<ReentrantLock>(stripes.size());
+    try {
+      // always in the order of the stripes, so that two callers cannot deadlock
+      for (var stripe : stripes) {
+        accessLocks[stripe].lock();
+        locked.add(accessLocks[stripe]);
+      }
+      return action.get();
+    } finally {
+      locked.forEach(ReentrantLock::unlock);
     }
-    if (!isActive(access)) {
-      log.info("Access {} is not active, skip granting permissions", access.getId());
-      return;
+  }
+
+  /**
+   * Whether an event of the access was processed at or after the {@link System#nanoTime()}.
+   */
+  boolean hasEventSince(String accessId, long nanoTime) {
+    var eventNanos = accessEventNanos.get(accessId);
+    return eventNanos != null && eventNanos - nanoTime >= 0;
+  }
+
+  private void processEvent(String accessId, Runnable action) {
+    var lock = accessLocks[stripe(accessId)];
+    lock.lock();
+    try {
+      accessEventNanos.put(accessId, System.nanoTime());
+      action.run();
+    } finally {
+      lock.unlock();
     }
-    grantPermissions(access);
+  }
+
+  private static int stripe(String accessId) {
+    return Math.floorMod(Objects.hashCode(accessId), ACCESS_LOCK_STRIPES);
+  }
+
+  @Override
+  public void onAccessActivatedEvent(AccessActivatedEvent event) {
+    processEvent(event.getId(), () -> activate(event));
   }
 
   @Override
   public void onAccessDeactivatedEvent(AccessDeactivatedEvent event) {
+    processEvent(event.getId(), () -> deactivate(event));
+  }
+
+  private void activate(AccessActivatedEvent event) {
+    log.info("Processing AccessActivatedEvent {}", event.getId());
+    var metrics = new EventMetrics("activated");
+    try (var scope = lookups.openScope()) {
+      var access = getAccess(event.getId());
+      metrics.consumerType = consumerTypeTag(access);
+      if (!isApplicable(access)) {
+        log.info("Access {} is not applicable for Snowflake access management", access.getId());
+        metrics.outcome = "skipped";
+        return;
+      }
+      if (!isActive(access)) {
+        log.info("Access {} is not active, skip granting permissions", access.getId());
+        metrics.outcome = "skipped";
+        return;
+      }
+      grantPermissions(access);
+      metrics.outcome = "success";
+    } finally {
+      metrics.record();
+    }
+  }
+
+  private void deactivate(AccessDeactivatedEvent event) {
     log.info("Processing AccessDeactivatedEvent {}", event.getId());
-    var access = getAccess(event.getId());
-    if (!isApplicable(access)) {
-      log.info("Access {} is not applicable for Snowflake access management", access.getId());
-      return;
+    var metrics = new EventMetrics("deactivated");
+    try (var scope = lookups.openScope()) {
+      var access = getAccess(event.getId());
+      metrics.consumerType = consumerTypeTag(access);
+      if (!isApplicable(access)) {
+        log.info("Access {} is not applicable for Snowflake access management", access.getId());
+        metrics.outcome = "skipped";
+        return;
+      }
+      revokePermissions(access);
+      metrics.outcome = "success";
+    } finally {
+      metrics.record();
+    }
+  }
+
+  /**
+   * Records the processing time of an event as {@code snowflake.accessmanagement.events}, tagged with the event type, the
+   * consumer type and the outcome. Events that throw are recorded as failures.
+   */
+  private class EventMetrics {
+
+    private final String event;
+    private final long start = System.nanoTime();
+    private String consumerType = "unknown";
+    private String outcome = "failure";
+
+    EventMetrics(String event) {
+      this.event = event;
+    }
+
+    void record() {
+      Timer.builder("snowflake.accessmanagement.events")
+          .description("Processing time of access events")
+          .tag("event", event)
+          .tag("consumerType", consumerType)
+          .tag("outcome", outcome)
+          .register(meterRegistry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
-    revokePermissions(access);
   }
 
-  private boolean isApplicable(Access access) {
+  private String consumerTypeTag(Access access) {
+    try {
+      return consumerType(access).name();
+    } catch (RuntimeException e) {
+      return "unknown";
+    }
+  }
+
+  boolean isApplicable(Access access) {
     var dataProductId = access.getProvider().getDataProductId();
     var dataProduct = getDataProduct(dataProductId);
     var outputPortId = access.getProvider().getOutputPortId();
@@ -86,11 +235,21 @@ public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHan
     return true;
   }
 
-  private boolean isActive(Access access) {
+  static boolean isActive(Access access) {
     return Objects.equals(access.getInfo().getActive(), Boolean.TRUE);
   }
 
   void grantPermissions(Access access) {
+    var results = grantExecutor.execute(desiredGrants(access));
+    logGrantResults(access, results);
+
+    // TODO: update access resource in Data Mesh Manager with logs
+  }
+
+  /**
+   * The roles and grants that an active access needs in Snowflake.
+   */
+  List<SnowflakeGrant> desiredGrants(Access access) {
     var dataProductId = access.getProvider().getDataProductId();
     var dataProduct = getDataProduct(dataProductId);
     var outputPortId = access.getProvider().getOutputPortId();
@@ -99,41 +258,55 @@ public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHan
     var accessRoleName = getAccessRoleName(access);
     var accessDescription = getAccessDescription(access, dataProduct, outputPort, snowflakeSchema);
 
-    var accessRole = createSnowflakeRole(accessRoleName, accessDescription);
+    var grants = new ArrayList<SnowflakeGrant>();
+    grants.add(new CreateRole(accessRoleName, accessDescription));
 
     switch (consumerType(access)) {
       case DATA_PRODUCT -> {
         var consumerDataProductRoleName = getConsumerDataProductRoleName(access);
-        var consumerDataProductRole = createSnowflakeRole(consumerDataProductRoleName, "Managed by Data Mesh Manager");
-        grantRoleToRole(accessRole.getName(), consumerDataProductRole.getName());
+        grants.add(new CreateRole(consumerDataProductRoleName, "Managed by Data Mesh Manager"));
+        grants.add(new RoleToRole(accessRoleName, consumerDataProductRoleName));
 
         var teamRoleName = getConsumerTeamRoleName(access);
-        var consumerTeamRole = createSnowflakeRole(teamRoleName, "Managed by Data Mesh Manager");
+        grants.add(new CreateRole(teamRoleName, "Managed by Data Mesh Manager"));
         var consumerTeam = getConsumerTeam(access.getConsumer().getTeamId());
         var consumerTeamMemberEmailAddresses = getMemberEmailAddresses(consumerTeam);
         var consumerTeamMemberUserNames = getSnowflakeUserNames(consumerTeamMemberEmailAddresses);
-        grantRoleToUsers(consumerTeamRole, consumerTeamMemberUserNames);
-        grantRoleToRole(accessRole.getName(), consumerTeamRole.getName());
+        consumerTeamMemberUserNames.forEach(userName -> grants.add(new RoleToUser(teamRoleName, userName)));
+        grants.add(new RoleToRole(accessRoleName, teamRoleName));
       }
       case TEAM -> {
         var teamRoleName = getConsumerTeamRoleName(access);
-        var consumerTeamRole = createSnowflakeRole(teamRoleName, "Managed by Data Mesh Manager");
+        grants.add(new CreateRole(teamRoleName, "Managed by Data Mesh Manager"));
         var consumerTeam = getConsumerTeam(access.getConsumer().getTeamId());
         var consumerTeamMemberEmailAddresses = getMemberEmailAddresses(consumerTeam);
         var consumerTeamMemberUserNames = getSnowflakeUserNames(consumerTeamMemberEmailAddresses);
-        grantRoleToUsers(consumerTeamRole, consumerTeamMemberUserNames);
-        grantRoleToRole(accessRole.getName(), consumerTeamRole.getName());
+        consumerTeamMemberUserNames.forEach(userName -> grants.add(new RoleToUser(teamRoleName, userName)));
+        grants.add(new RoleToRole(accessRoleName, teamRoleName));
       }
       case USER -> {
         var emailAddress = access.getConsumer().getUserId();
         var snowflakeUserNames = getSnowflakeUserNames(List.of(emailAddress));
-        grantRoleToUsers(accessRole, snowflakeUserNames);
+        snowflakeUserNames.forEach(userName -> grants.add(new RoleToUser(accessRoleName, userName)));
       }
     }
 
-    grantSchemaPermissions(snowflakeSchema, accessRole.getName());
+    grants.addAll(schemaGrants(snowflakeSchema, accessRoleName));
+    return grants;
+  }
 
-    // TODO: update access resource in Data Mesh Manager with logs
+  private static void logGrantResults(Access access, List<GrantResult> results) {
+    var failedResults = results.stream().filter(GrantResult::failed).toList();
+    log.info("Applied {} of {} grants for access {}", results.size() - failedResults.size(), results.size(), access.getId());
+    if (failedResults.isEmpty()) {
+      return;
+    }
+    for (var failedResult : failedResults) {
+      log.warn("Grant {} for access {}: {} {}", failedResult.status(), access.getId(), failedResult.grant().description(),
+          failedResult.error() != null ? failedResult.error() : "");
+    }
+    throw new RuntimeException("Failed to apply %d of %d grants for access %s"
+        .formatted(failedResults.size(), results.size(), access.getId()));
   }
 
   private String getAccessDescription(Access access, DataProduct dataProduct, DataProductOutputPortsInner outputPort,
@@ -147,29 +320,11 @@ public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHan
     if (emailAddresses == null || emailAddresses.isEmpty()) {
       return Collections.emptyList();
     }
-    var filteredEmailAddresses = emailAddresses.stream().filter(email -> email != null && !email.isBlank()).map(String::toLowerCase)
-        .toList();
-    UserApi userApi = new UserApi(snowflakeApiClient);
-    // Use SCIM2 API instead?
-    List<User> allUsers = userApi.listUsers(null, null, null, null);
-    return allUsers.stream().filter(user -> filteredEmailAddresses.contains(user.getEmail())).map(User::getName).toList();
-  }
-
-  private void grantRoleToUsers(Role role, List<String> snowflakeUserNames) {
-    UserApi userApi = new UserApi(snowflakeApiClient);
-    for (String snowflakeUserName : snowflakeUserNames) {
-      log.info("Granting role {} to user {}", role.getName(), snowflakeUserName);
-      userApi.grant(snowflakeUserName,
-          new snowflake.client.model.user.Grant()
-              .securableType("ROLE")
-              .securable(new snowflake.client.model.user.Securable().name(role.getName()))
-              .addPrivilegesItem("USAGE")
-      );
-    }
+    return userIndex.getUserNames(emailAddresses);
   }
 
   @NotNull
-  private static String getAccessRoleName(Access access) {
+  static String getAccessRoleName(Access access) {
     if (access.getCustom() != null && access.getCustom().containsKey("snowflakeRole")) {
       return access.getCustom().get("snowflakeRole");
     }
@@ -195,7 +350,7 @@ public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHan
   }
 
   @NotNull
-  private static String sanitize(String string) {
+  static String sanitize(String string) {
     return string
         .replaceAll("-", "_")
         .replaceAll("\\.", "_")
@@ -208,47 +363,13 @@ public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHan
    */
   private void revokePermissions(Access access) {
     var accessRoleName = getAccessRoleName(access);
-    RoleApi roleApi = new RoleApi(snowflakeApiClient);
     log.info("Deleting access role {} for access {}", accessRoleName, access.getId());
-    roleApi.deleteRole(accessRoleName, true);
+    roleCatalog.deleteRole(accessRoleName);
     log.info("Access role {} deleted", accessRoleName);
   }
 
-  private Role createSnowflakeRole(String roleName, String comment) {
-    RoleApi roleApi = new RoleApi(snowflakeApiClient);
-    var role = getRoleByName(roleName);
-    if (role.isPresent()) {
-      log.info("Role {} already exists", roleName);
-      return role.get();
-    }
-    log.info("Creating role {}", roleName);
-    var newRole = new Role().name(roleName).comment(comment);
-    roleApi.createRole(newRole, "ifNotExists");
-    log.info("Created role {}", roleName);
-    return newRole;
-  }
-
-  private Optional<Role> getRoleByName(String roleName) {
-    RoleApi roleApi = new RoleApi(snowflakeApiClient);
-    List<Role> roles = roleApi.listRoles("roleName", null, null, null);
-    return roles.stream().filter(role -> role.getName().equals(roleName)).findFirst();
-  }
-
-  protected void grantRoleToRole(String roleName, String parentRoleName) {
-    RoleApi roleApi = new RoleApi(snowflakeApiClient);
-    log.info("Granting role {} to role {}", roleName, parentRoleName);
-    roleApi.grantPrivileges(
-        parentRoleName,
-        new Grant()
-            .securable(new Securable().name(roleName))
-            .securableType("ROLE")
-            .grantOption(false)
-            .addPrivilegesItem("USAGE")
-    );
-  }
-
   private Team getConsumerTeam(String teamId) {
-    return client.getTeamsApi().getTeam(teamId);
+    return lookups.getTeam(teamId);
   }
 
   private static List<String> getMemberEmailAddresses(Team consumerTeam) {
@@ -300,7 +421,7 @@ public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHan
           "The server field schema is not defined for data product %s in output port %s".formatted(dataProductId, outputPort.getId()));
     }
 
-    return new SchemaApi(snowflakeApiClient).listSchemas(snowflakeDatabase, snowflakeSchema, null, null, null, null).stream()
+    return snowflakeApis.schemas().listSchemas(snowflakeDatabase, snowflakeSchema, null, null, null, null).stream()
         .filter(schema -> schema.getName().equals(snowflakeSchema))
         .findFirst()
         .orElseThrow(() -> new RuntimeException("Schema %s.%s not found".formatted(snowflakeDatabase, snowflakeSchema)));
@@ -321,57 +442,36 @@ public class SnowflakeAccessManagementHandler implements DataMeshManagerEventHan
 
 
   public void grantSchemaPermissions(SchemaInfo schemaInfo, String roleName) {
-    RoleApi roleApi = new RoleApi(snowflakeApiClient);
+    log.info("Granting permissions to role {} on schema {}.{}", roleName, schemaInfo.getDatabaseName(), schemaInfo.getName());
+    grantExecutor.execute(schemaGrants(schemaInfo, roleName)).stream()
+        .filter(GrantResult::failed)
+        .findFirst()
+        .ifPresent(result -> {
+          throw new RuntimeException("Failed to %s: %s".formatted(result.grant().description(), result.error()));
+        });
+
+    // TODO return log information
+  }
+
+  private static List<SnowflakeGrant> schemaGrants(SchemaInfo schemaInfo, String roleName) {
     var databaseName = schemaInfo.getDatabaseName();
     var schemaName = schemaInfo.getName();
-
-    log.info("Granting USAGE permission to role {} on schema {}.{}", roleName, databaseName, schemaName);
-    roleApi.grantPrivileges(
-        roleName,
-        new Grant()
-            .securableType("SCHEMA")
-            .containingScope(new ContainingScope().database(databaseName))
-            .addPrivilegesItem("USAGE")
+    return List.of(
+        new DatabaseSchemasUsage(databaseName, roleName),
+        new SchemaObjectsSelect("TABLE", databaseName, schemaName, roleName, false),
+        new SchemaObjectsSelect("TABLE", databaseName, schemaName, roleName, true),
+        new SchemaObjectsSelect("VIEW", databaseName, schemaName, roleName, false),
+        new SchemaObjectsSelect("VIEW", databaseName, schemaName, roleName, true)
     );
-
-    roleApi.grantPrivileges(
-        roleName,
-        new Grant()
-            .securableType("TABLE")
-            .containingScope(new ContainingScope().database(databaseName).schema(schemaName))
-            .addPrivilegesItem("SELECT"));
-
-    roleApi.grantFuturePrivileges(
-        roleName,
-        new Grant()
-            .securableType("TABLE")
-            .containingScope(new ContainingScope().database(databaseName).schema(schemaName))
-            .addPrivilegesItem("SELECT"));
-
-    roleApi.grantPrivileges(
-        roleName,
-        new Grant()
-            .securableType("VIEW")
-            .containingScope(new ContainingScope().database(databaseName).schema(schemaName))
-            .addPrivilegesItem("SELECT"));
-
-    roleApi.grantFuturePrivileges(
-        roleName,
-        new Grant()
-            .securableType("VIEW")
-            .containingScope(new ContainingScope().database(databaseName).schema(schemaName))
-            .addPrivilegesItem("SELECT"));
-
-    // TODO return log information
   }
 
   private Access getAccess(String accessId) {
-    return client.getAccessApi().getAccess(accessId);
+    return lookups.getAccess(accessId);
   }
 
   private DataProduct getDataProduct(String dataProductId) {
     try {
-      return client.getDataProductsApi().getDataProduct(dataProductId);
+      return lookups.getDataProduct(dataProductId);
     } catch (ApiException e) {
       log.error("Error getting data product", e);
       throw new RuntimeException(e);
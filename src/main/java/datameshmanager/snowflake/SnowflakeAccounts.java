@@ -0,0 +1,61 @@
+package datameshmanager.snowflake;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * The Snowflake accounts whose assets are synchronized. Every account has its own token supplier and API client, while all
+ * accounts share the HTTP client, i.e. the connection pool and the {@link SnowflakeRequestScheduler}.
+ */
+public class SnowflakeAccounts implements AutoCloseable {
+
+  private final List<SnowflakeAccount> accounts;
+  private final boolean ownsTokenSuppliers;
+
+  private SnowflakeAccounts(List<SnowflakeAccount> accounts, boolean ownsTokenSuppliers) {
+    this.accounts = accounts;
+    this.ownsTokenSuppliers = ownsTokenSuppliers;
+  }
+
+  /**
+   * The single account of the connector, using the connector's token supplier and API client.
+   */
+  public static SnowflakeAccounts single(SnowflakeProperties snowflakeProperties, BearerTokenSupplier bearerTokenSupplier,
+      SnowflakeApis snowflakeApis) {
+    return new SnowflakeAccounts(List.of(new SnowflakeAccount(snowflakeProperties, bearerTokenSupplier, snowflakeApis)), false);
+  }
+
+  /**
+   * Accounts with token suppliers of their own, which are closed with this object.
+   *
+   * @throws IllegalStateException if two accounts share a token supplier or an API client, so they would read the same account
+   */
+  public static SnowflakeAccounts of(List<SnowflakeAccount> accounts) {
+    var tokenSuppliers = Collections.newSetFromMap(new IdentityHashMap<>());
+    var apiClients = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (var account : accounts) {
+      if (!tokenSuppliers.add(account.bearerTokenSupplier()) || !apiClients.add(account.apis().databases().getApiClient())) {
+        throw new IllegalStateException("Snowflake account %s shares its API client with another account"
+            .formatted(account.properties().account()));
+      }
+    }
+    return new SnowflakeAccounts(List.copyOf(accounts), true);
+  }
+
+  public List<SnowflakeAccount> accounts() {
+    return accounts;
+  }
+
+  @Override
+  public void close() {
+    if (ownsTokenSuppliers) {
+      accounts.forEach(account -> account.bearerTokenSupplier().close());
+    }
+  }
+
+  public record SnowflakeAccount(SnowflakeProperties properties, BearerTokenSupplier bearerTokenSupplier, SnowflakeApis apis) {
+
+  }
+
+}
@@ -0,0 +1,34 @@
+package datameshmanager.snowflake;
+
+import snowflake.client.ApiClient;
+import snowflake.client.api.DatabaseApi;
+import snowflake.client.api.RoleApi;
+import snowflake.client.api.SchemaApi;
+import snowflake.client.api.TableApi;
+import snowflake.client.api.UserApi;
+import snowflake.client.api.ViewApi;
+
+/**
+ * The generated Snowflake REST API facades, created once per {@link ApiClient}. The facades hold no state besides the client,
+ * so they can be shared between threads.
+ */
+public record SnowflakeApis(
+    DatabaseApi databases,
+    SchemaApi schemas,
+    TableApi tables,
+    ViewApi views,
+    RoleApi roles,
+    UserApi users
+) {
+
+  public static SnowflakeApis of(ApiClient snowflakeApiClient) {
+    return new SnowflakeApis(
+        new DatabaseApi(snowflakeApiClient),
+        new SchemaApi(snowflakeApiClient),
+        new TableApi(snowflakeApiClient),
+        new ViewApi(snowflakeApiClient),
+        new RoleApi(snowflakeApiClient),
+        new UserApi(snowflakeApiClient));
+  }
+
+}
@@ -0,0 +1,211 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.DataMeshManagerStateRepository;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Splits the databases of the asset synchronization between several connector replicas.
+ * <p>
+ * Databases are assigned with rendezvous hashing: each database belongs to the replica with the highest hash of replica and
+ * database name. Every replica computes the same assignment from the same list of replicas, and when a replica leaves, only its
+ * databases move to the others.
+ * <p>
+ * The list of replicas is either fixed ({@link #fixed(int, int)}) or maintained with leases in a Data Mesh Manager state
+ * repository ({@link #leased(DataMeshManagerStateRepository, String, Duration, Clock)}). Every replica renews its lease in the
+ * background; a replica that stops renewing drops out after the lease TTL, and its databases are picked up by the others with
+ * their next run. The state repository has no compare-and-set, so two replicas renewing at the same time may drop each other's
+ * lease until the next renewal. Replicas then temporarily disagree, and a database may be synchronized twice or skipped for one
+ * run.
+ */
+public class SnowflakeAssetShards implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeAssetShards.class);
+
+  private static final String LEASES = "leases";
+
+  private final List<String> fixedReplicas;
+  private final String replicaId;
+  private final DataMeshManagerStateRepository stateRepository;
+  private final Duration leaseTtl;
+  private final Clock clock;
+  private final ScheduledExecutorService renewal;
+
+  private SnowflakeAssetShards(List<String> fixedReplicas, String replicaId, DataMeshManagerStateRepository stateRepository,
+      Duration leaseTtl, Clock clock) {
+    this.fixedReplicas = fixedReplicas;
+    this.replicaId = replicaId;
+    this.stateRepository = stateRepository;
+    this.leaseTtl = leaseTtl;
+    this.clock = clock;
+    if (stateRepository == null) {
+      this.renewal = null;
+      return;
+    }
+    var threadFactory = new CustomizableThreadFactory("snowflake-assets-lease-");
+    threadFactory.setDaemon(true);
+    this.renewal = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    var renewalPeriod = Math.max(1000, leaseTtl.toMillis() / 3);
+    this.renewal.scheduleWithFixedDelay(this::renewLease, 0, renewalPeriod, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A single replica that synchronizes all databases.
+   */
+  public static SnowflakeAssetShards all() {
+    return fixed(1, 0);
+  }
+
+  /**
+   * A fixed number of replicas, each configured with its own index, e.g. the ordinal of a Kubernetes StatefulSet pod.
+   */
+  public static SnowflakeAssetShards fixed(int replicas, int replicaIndex) {
+    if (replicas < 1 || replicaIndex < 0 || replicaIndex >= replicas) {
+      throw new IllegalArgumentException("Invalid shard %d of %d replicas".formatted(replicaIndex, replicas));
+    }
+    var replicaIds = new ArrayList<String>(replicas);
+    for (int i = 0; i < replicas; i++) {
+      replicaIds.add(String.valueOf(i));
+    }
+    return new SnowflakeAssetShards(replicaIds, String.valueOf(replicaIndex), null, null, null);
+  }
+
+  /**
+   * Replicas that join and leave by holding a lease in the state repository. Without a replica ID, the host name is used.
+   */
+  public static SnowflakeAssetShards leased(DataMeshManagerStateRepository stateRepository, String replicaId, Duration leaseTtl,
+      Clock clock) {
+    return new SnowflakeAssetShards(null, replicaId != null ? replicaId : defaultReplicaId(), stateRepository, leaseTtl, clock);
+  }
+
+  /**
+   * The assignment for the next run. It stays the same for the whole run, even if replicas join or leave in the meantime.
+   */
+  public Assignment assignment() {
+    if (fixedReplicas != null) {
+      return new Assignment(fixedReplicas, replicaId);
+    }
+    var replicas = new TreeSet<>(activeLeases(stateRepository.getState()).keySet());
+    replicas.add(replicaId);
+    return new Assignment(List.copyOf(replicas), replicaId);
+  }
+
+  private synchronized void renewLease() {
+    try {
+      var leases = activeLeases(stateRepository.getState());
+      leases.put(replicaId, clock.millis() + leaseTtl.toMillis());
+      stateRepository.saveState(Map.of(LEASES, leases));
+      log.debug("Renewed lease of replica {}, active replicas {}", replicaId, leases.keySet());
+    } catch (RuntimeException e) {
+      log.warn("Failed to renew lease of replica {}", replicaId, e);
+    }
+  }
+
+  private Map<String, Object> activeLeases(Map<String, Object> state) {
+    var leases = new HashMap<String, Object>();
+    if (state == null || !(state.get(LEASES) instanceof Map<?, ?> storedLeases)) {
+      return leases;
+    }
+    var now = clock.millis();
+    storedLeases.forEach((replica, expiresAt) -> {
+      if (expiresAt instanceof Number number && number.longValue() > now) {
+        leases.put(String.valueOf(replica), number.longValue());
+      }
+    });
+    return leases;
+  }
+
+  /**
+   * Stops renewing and gives up the lease, so the other replicas take over right away.
+   */
+  @Override
+  public synchronized void close() {
+    if (renewal == null) {
+      return;
+    }
+    renewal.shutdownNow();
+    try {
+      var leases = activeLeases(stateRepository.getState());
+      if (leases.remove(replicaId) != null) {
+        stateRepository.saveState(Map.of(LEASES, leases));
+      }
+    } catch (RuntimeException e) {
+      log.warn("Failed to release lease of replica {}", replicaId, e);
+    }
+  }
+
+  private static String defaultReplicaId() {
+    var hostname = System.getenv("HOSTNAME");
+    if (hostname != null && !hostname.isBlank()) {
+      return hostname;
+    }
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (UnknownHostException e) {
+      return UUID.randomUUID().toString();
+    }
+  }
+
+  /**
+   * The replicas of a run and the replica this connector runs as.
+   */
+  public record Assignment(List<String> replicas, String replicaId) {
+
+    public boolean isSharded() {
+      return replicas.size() > 1;
+    }
+
+    /**
+     * Whether this replica synchronizes the database with the given name.
+     */
+    public boolean owns(String databaseName) {
+      if (!isSharded()) {
+        return true;
+      }
+      String owner = null;
+      long highestWeight = 0;
+      for (var replica : replicas) {
+        var weight = weight(replica, databaseName);
+        if (owner == null || Long.compareUnsigned(weight, highestWeight) > 0) {
+          owner = replica;
+          highestWeight = weight;
+        }
+      }
+      return replicaId.equals(owner);
+    }
+
+    /**
+     * FNV-1a over replica and database name, followed by the MurmurHash3 finalizer. Unlike {@link String#hashCode()}, similar
+     * names such as {@code DB_001} and {@code DB_002} get unrelated weights.
+     */
+    private static long weight(String replica, String databaseName) {
+      var hash = 0xcbf29ce484222325L;
+      for (var b : (replica + '\0' + databaseName).getBytes(StandardCharsets.UTF_8)) {
+        hash ^= b & 0xff;
+        hash *= 0x100000001b3L;
+      }
+      hash ^= hash >>> 33;
+      hash *= 0xff51afd7ed558ccdL;
+      hash ^= hash >>> 33;
+      hash *= 0xc4ceb9fe1a85ec53L;
+      hash ^= hash >>> 33;
+      return hash;
+    }
+  }
+
+}
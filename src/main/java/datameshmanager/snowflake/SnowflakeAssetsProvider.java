@@ -4,16 +4,31 @@ import datameshmanager.sdk.DataMeshManagerAssetsProvider;
 import datameshmanager.sdk.client.model.Asset;
 import datameshmanager.sdk.client.model.AssetColumnsInner;
 import datameshmanager.sdk.client.model.AssetInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import snowflake.client.ApiClient;
-import snowflake.client.api.DatabaseApi;
-import snowflake.client.api.SchemaApi;
-import snowflake.client.api.TableApi;
-import snowflake.client.api.ViewApi;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import snowflake.client.ApiException;
 import snowflake.client.model.database.Database;
 import snowflake.client.model.schema.SchemaInfo;
 import snowflake.client.model.table.Table;
@@ -23,65 +38,634 @@ public class SnowflakeAssetsProvider implements DataMeshManagerAssetsProvider {
 
   private static final Logger log = LoggerFactory.getLogger(SnowflakeAssetsProvider.class);
 
-  private final SnowflakeProperties snowflakeProperties;
-  private final ApiClient snowflakeApiClient;
+  /**
+   * In the two-phase crawl, up to this many changed objects of a schema are fetched one by one, more with a deep listing.
+   */
+  private static final int MAX_SINGLE_FETCHES = 10;
 
-  public SnowflakeAssetsProvider(SnowflakeProperties snowflakeProperties, ApiClient snowflakeApiClient) {
+  private final SnowflakeProperties snowflakeProperties;
+  private final SnowflakeApis snowflakeApis;
+  private final AssetFingerprintStore fingerprintStore;
+  private final SnowflakeAssetShards shards;
+  private final MeterRegistry meterRegistry;
+  private final NameFilter databaseFilter;
+  private final NameFilter schemaFilter;
+  private final NameFilter objectFilter;
+  /**
+   * {@code snowflake-<account>-}, the start of every asset ID.
+   */
+  private final String idPrefix;
+  /**
+   * Whether table and view IDs contain the schema name, see {@link SnowflakeProperties.AssetsProperties#schemaids()}.
+   */
+  private final boolean schemaIds;
+  /**
+   * The ID and qualified name prefixes of the schema the current thread is mapping, as a crawler thread maps the tables and
+   * views of one schema after the other.
+   */
+  private final ThreadLocal<SchemaPrefixes> schemaPrefixes = new ThreadLocal<>();
+  private volatile SnowflakeAssetShards.Assignment assignment = SnowflakeAssetShards.all().assignment();
+  private volatile CrawlCheckpoint checkpoint = CrawlCheckpoint.disabled();
+  private volatile IncrementalAssetCallback incrementalAssetCallback;
+
+  /**
+   * Change markers of the tables and views seen by the previous complete run, for the two-phase crawl, and of those seen by the
+   * current run. See {@link #synchronizeTables(SchemaInfo, AssetCallback)}. The previous markers are not modified during a run.
+   */
+  private volatile FingerprintTable previousChangeMarkers = new FingerprintTable();
+  private volatile FingerprintTable changeMarkers = new FingerprintTable();
+  private volatile boolean shallowRun;
+  private long lastDeepRunNanos;
+
+  public SnowflakeAssetsProvider(SnowflakeProperties snowflakeProperties, SnowflakeApis snowflakeApis, SnowflakeAssetShards shards,
+      MeterRegistry meterRegistry) {
     this.snowflakeProperties = snowflakeProperties;
-    this.snowflakeApiClient = snowflakeApiClient;
+    this.snowflakeApis = snowflakeApis;
+    this.shards = shards;
+    this.meterRegistry = meterRegistry;
+    var fingerprintFile = snowflakeProperties.assets().fingerprintfile();
+    this.fingerprintStore = fingerprintFile != null ? new AssetFingerprintStore(fingerprintFile) : null;
+    var filter = snowflakeProperties.assets().filter();
+    this.databaseFilter = NameFilter.of(filter.includedatabases(), filter.excludedatabases());
+    this.schemaFilter = NameFilter.of(filter.includeschemas(), filter.excludeschemas());
+    this.objectFilter = NameFilter.of(filter.includeobjects(), filter.excludeobjects());
+    this.idPrefix = "snowflake-" + snowflakeProperties.account() + "-";
+    this.schemaIds = snowflakeProperties.assets().schemaids();
   }
 
   @Override
   public void fetchAssets(AssetCallback assetCallback) {
-    log.info("Calling Snowflake REST API to fetch databases");
-    DatabaseApi databaseApi = new DatabaseApi(snowflakeApiClient);
-    List<Database> databases = databaseApi.listDatabases(null, null, null, null, null);
+    var concurrency = concurrency();
+    assignment = shards.assignment();
+    if (assignment.isSharded()) {
+      log.info("Synchronizing the databases of replica {} of replicas {}", assignment.replicaId(), assignment.replicas());
+    }
+    assetCallback = new MeteredAssetCallback(assetCallback, meterRegistry);
+    var publisher = publisher(assetCallback);
+    if (publisher != null) {
+      assetCallback = publisher;
+    } else if (concurrency > 1) {
+      assetCallback = new SynchronizedAssetCallback(assetCallback);
+    }
 
-    for (var database : databases) {
-      if (!includeDatabase(database)) {
-        continue;
+    var checkpointFile = snowflakeProperties.assets().checkpointfile();
+    checkpoint = checkpointFile == null
+        ? CrawlCheckpoint.disabled()
+        : CrawlCheckpoint.open(checkpointFile, publisher != null ? publisher::afterSent : Runnable::run);
+
+    if (fingerprintStore == null) {
+      try (publisher) {
+        crawl(assetCallback, concurrency);
       }
+      checkpoint.finish();
+      return;
+    }
 
-      log.info("Synchronizing database {}", database.getName());
+    try (var incrementalAssetCallback = new IncrementalAssetCallback(assetCallback, fingerprintStore)) {
+      this.incrementalAssetCallback = incrementalAssetCallback;
+      fetchAssetsIncrementally(incrementalAssetCallback, publisher, concurrency);
+    }
+  }
 
-      var schemaApi = new SchemaApi(snowflakeApiClient);
-      var schemas = schemaApi.listSchemas(database.getName(), null, null, null, null, true);
+  private void fetchAssetsIncrementally(IncrementalAssetCallback incrementalAssetCallback, BatchingAssetPublisher publisher,
+      int concurrency) {
+    changeMarkers = new FingerprintTable(previousChangeMarkers.size());
+    var runStart = System.nanoTime();
+    shallowRun = isShallowRunDue(runStart);
+    if (shallowRun) {
+      log.info("Fetching columns only for new and changed tables and views");
+    }
+    try {
+      crawl(incrementalAssetCallback, concurrency);
+    } catch (RuntimeException e) {
+      // the markers may belong to assets that were never sent, so the next run must be deep
+      previousChangeMarkers = new FingerprintTable();
+      if (closeAfterFailure(publisher, e)) {
+        incrementalAssetCallback.saveFingerprintsOfIncompleteRun();
+      }
+      log.warn("Asset synchronization failed, deleted assets are detected in the next run. {}", incrementalAssetCallback.statistics());
+      throw e;
+    }
+    // the fingerprints mark assets as sent, so they are only saved once the publisher has sent all batches
+    var resumed = checkpoint.resumed();
+    try (publisher) {
+      if (!resumed) {
+        incrementalAssetCallback.deleteMissingAssets(this::ownsDatabase);
+      }
+    } catch (RuntimeException e) {
+      previousChangeMarkers = new FingerprintTable();
+      throw e;
+    }
+    if (resumed) {
+      incrementalAssetCallback.saveFingerprintsOfIncompleteRun();
+    } else {
+      incrementalAssetCallback.saveFingerprints();
+    }
+    checkpoint.finish();
+    // a resumed run did not see the tables and views of the skipped schemas, so it keeps the markers of the previous run
+    if (!resumed) {
+      previousChangeMarkers = changeMarkers;
+      if (!shallowRun) {
+        lastDeepRunNanos = runStart;
+      }
+    }
+    if (resumed) {
+      log.info("Resumed asset synchronization finished, deleted assets are detected in the next run. {}",
+          incrementalAssetCallback.statistics());
+    } else {
+      log.info("Asset synchronization finished. {}", incrementalAssetCallback.statistics());
+    }
+  }
 
-      for (var schema : schemas) {
-        if (!includeSchema(schema)) {
-          continue;
-        }
+  /**
+   * Whether this run may reuse the columns of unchanged tables and views. That needs the fingerprints of the previous run, and
+   * the change markers of a deep run within the configured column refresh interval, as not every change of columns changes a
+   * marker.
+   */
+  private boolean isShallowRunDue(long now) {
+    var columnRefreshInterval = snowflakeProperties.assets().columnrefreshinterval();
+    if (columnRefreshInterval == null || previousChangeMarkers.size() == 0) {
+      return false;
+    }
+    return now - lastDeepRunNanos < columnRefreshInterval.toNanos();
+  }
 
-        log.info("Synchronizing schema {}", toId(schema));
+  /**
+   * The progress of the current run.
+   */
+  CrawlCheckpoint checkpoint() {
+    return checkpoint;
+  }
 
-        if (schema.getDroppedOn() != null) {
-          assetCallback.onAssetDeleted(toId(schema));
-          continue;
-        }
+  private BatchingAssetPublisher publisher(AssetCallback assetCallback) {
+    var assets = snowflakeProperties.assets();
+    if (assets.publishbatchsize() == null || assets.publishbatchsize() < 1) {
+      return null;
+    }
+    return new BatchingAssetPublisher(assetCallback, assets.publishbatchsize(), assets.publishinterval(),
+        assets.publishconcurrency(), meterRegistry);
+  }
+
+  /**
+   * Sends the assets collected before the failure. Returns false if that failed as well, so the fingerprints of the run must not
+   * be saved.
+   */
+  private static boolean closeAfterFailure(BatchingAssetPublisher publisher, RuntimeException failure) {
+    if (publisher == null) {
+      return true;
+    }
+    try {
+      publisher.close();
+      return true;
+    } catch (RuntimeException e) {
+      failure.addSuppressed(e);
+      return false;
+    }
+  }
+
+  /**
+   * Passes all assets to the callback. With a concurrency above one, the callback is invoked from several threads.
+   */
+  protected void crawl(AssetCallback assetCallback, int concurrency) {
+    var databases = listDatabases();
+
+    if (concurrency <= 1) {
+      for (var database : databases) {
+        databaseTimer(database).record(() -> synchronizeDatabase(database, assetCallback));
+        checkpoint.databaseCompleted(database.getName());
+      }
+      return;
+    }
 
-        schemaToAsset(schema).ifPresent(assetCallback::onAssetUpdated);
+    fetchAssetsInParallel(databases, assetCallback, concurrency);
+  }
 
-        var tableApi = new TableApi(snowflakeApiClient);
-        var tables = tableApi.listTables(database.getName(), schema.getName(), null, null, null, null, true, true);
-        for (var table : tables) {
-          log.info("Synchronizing table {}", toId(table));
+  /**
+   * Crawls the databases concurrently on a pool of {@code concurrency} threads, which is also the upper bound of concurrent
+   * Snowflake requests. Each database processes at most {@code databaseconcurrency} schemas at a time, so that a single large
+   * database cannot occupy the whole pool while the other databases wait.
+   * <p>
+   * The asset callback is invoked from the pool threads, so it must be thread-safe.
+   */
+  private void fetchAssetsInParallel(List<Database> databases, AssetCallback assetCallback, int concurrency) {
+    var databaseConcurrency = databaseConcurrency(concurrency);
+    log.info("Synchronizing {} databases with concurrency {} ({} schemas per database)", databases.size(), concurrency,
+        databaseConcurrency);
+    var executor = Executors.newFixedThreadPool(concurrency, new CustomizableThreadFactory("snowflake-assets-"));
+    try {
+      var databaseFutures = databases.stream()
+          .map(database -> synchronizeDatabaseAsync(database, assetCallback, executor, databaseConcurrency))
+          .toArray(CompletableFuture[]::new);
+      CompletableFuture.allOf(databaseFutures).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private CompletableFuture<Void> synchronizeDatabaseAsync(Database database, AssetCallback assetCallback, Executor executor,
+      int databaseConcurrency) {
+    var start = System.nanoTime();
+    return CompletableFuture.supplyAsync(() -> listSchemas(database), executor)
+        .thenCompose(schemas -> {
+          var pendingSchemas = new ConcurrentLinkedQueue<>(schemas);
+          var lanes = Math.min(databaseConcurrency, schemas.size());
+          var laneFutures = new CompletableFuture[lanes];
+          for (int i = 0; i < lanes; i++) {
+            laneFutures[i] = synchronizeSchemasAsync(pendingSchemas, assetCallback, executor);
+          }
+          return CompletableFuture.allOf(laneFutures);
+        })
+        .whenComplete((unused, e) -> {
+          databaseTimer(database).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+          if (e == null) {
+            checkpoint.databaseCompleted(database.getName());
+          }
+        });
+  }
+
+  /**
+   * Processes the pending schemas one after another, submitting the next schema only when the previous one is done.
+   */
+  private CompletableFuture<Void> synchronizeSchemasAsync(Queue<SchemaInfo> pendingSchemas, AssetCallback assetCallback,
+      Executor executor) {
+    var schema = pendingSchemas.poll();
+    if (schema == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return CompletableFuture.runAsync(() -> synchronizeSchema(schema, assetCallback), executor)
+        .thenCompose(unused -> synchronizeSchemasAsync(pendingSchemas, assetCallback, executor));
+  }
+
+  /**
+   * The databases to synchronize in this run, i.e. the included databases that this replica owns and that a resumed run has
+   * not completed yet.
+   */
+  protected List<Database> listDatabases() {
+    log.info("Calling Snowflake REST API to fetch databases");
+    var currentAssignment = assignment;
+    var currentCheckpoint = checkpoint;
+    var databases = snowflakeApis.databases().listDatabases(databaseFilter.like(), null, null, null, null).stream()
+        .filter(this::includeDatabase)
+        .filter(database -> !currentCheckpoint.isDatabaseCompleted(database.getName()))
+        .toList();
+    if (!currentAssignment.isSharded()) {
+      return databases;
+    }
+    var ownedDatabases = databases.stream()
+        .filter(database -> currentAssignment.owns(database.getName()))
+        .toList();
+    log.info("Replica {} owns {} of {} databases", currentAssignment.replicaId(), ownedDatabases.size(), databases.size());
+    return ownedDatabases;
+  }
+
+  /**
+   * Whether the assets of the database belong to this replica. Assets of other replicas' databases are never deleted by this
+   * replica, even if it synchronized them in an earlier run. The database is taken from the fingerprint file rather than from
+   * the asset ID, as quoted database names may contain the separator of the ID. Assets of an unknown database, stored by an
+   * earlier version, are only deleted without sharding.
+   */
+  boolean ownsDatabase(String database) {
+    var currentAssignment = assignment;
+    if (!currentAssignment.isSharded()) {
+      return true;
+    }
+    return database != null && currentAssignment.owns(database);
+  }
+
+  private void synchronizeDatabase(Database database, AssetCallback assetCallback) {
+    for (var schema : listSchemas(database)) {
+      synchronizeSchema(schema, assetCallback);
+    }
+  }
+
+  private List<SchemaInfo> listSchemas(Database database) {
+    log.info("Synchronizing database {}", database.getName());
+    var currentCheckpoint = checkpoint;
+    return snowflakeApis.schemas().listSchemas(database.getName(), schemaFilter.like(), null, null, null, true).stream()
+        .filter(this::includeSchema)
+        .filter(schema -> !currentCheckpoint.isSchemaCompleted(schema.getDatabaseName(), schema.getName()))
+        .toList();
+  }
+
+  private void synchronizeSchema(SchemaInfo schema, AssetCallback assetCallback) {
+    var start = System.nanoTime();
+    try {
+      synchronizeSchemaObjects(schema, assetCallback);
+      checkpoint.schemaCompleted(schema.getDatabaseName(), schema.getName());
+    } finally {
+      var duration = System.nanoTime() - start;
+      schemaTimer(schema.getDatabaseName()).record(duration, TimeUnit.NANOSECONDS);
+      log.debug("Synchronized schema {} in {} ms", toId(schema), TimeUnit.NANOSECONDS.toMillis(duration));
+    }
+  }
+
+  private void synchronizeSchemaObjects(SchemaInfo schema, AssetCallback assetCallback) {
+    log.info("Synchronizing schema {}", toId(schema));
+
+    if (schema.getDroppedOn() != null) {
+      assetCallback.onAssetDeleted(toId(schema));
+      return;
+    }
+
+    schemaToAsset(schema).ifPresent(assetCallback::onAssetUpdated);
+
+    synchronizeTables(schema, assetCallback);
+    synchronizeViews(schema, assetCallback);
+  }
+
+  /**
+   * Synchronizes the tables of a schema, including their columns.
+   * <p>
+   * In a shallow run, this is done in two phases. Phase one lists the tables without columns and compares a change marker
+   * over creation time, rows, bytes and the other listed properties with the previous run. Unchanged tables keep their
+   * fingerprint and are not sent again. Phase two fetches the columns of new and changed tables only.
+   */
+  private void synchronizeTables(SchemaInfo schema, AssetCallback assetCallback) {
+    var database = schema.getDatabaseName();
+    var schemaName = schema.getName();
+    BiFunction<Integer, String, List<Table>> deepListing = (showLimit, fromName) -> snowflakeApis.tables()
+        .listTables(database, schemaName, objectFilter.like(), null, showLimit, fromName, true, true);
+    if (!shallowRun) {
+      forEachPage(deepListing, Table::getName, table -> synchronizeTable(table, assetCallback));
+      return;
+    }
+
+    var changedNames = new HashSet<String>();
+    forEachPage((showLimit, fromName) -> snowflakeApis.tables()
+            .listTables(database, schemaName, objectFilter.like(), null, showLimit, fromName, true, false),
+        Table::getName,
+        table -> {
           if (table.getDroppedOn() != null) {
-            assetCallback.onAssetDeleted(toId(table));
-            continue;
+            synchronizeTable(table, assetCallback);
+          } else if (includeTable(table) && !isUnchanged(toId(table), database, changeMarker(table))) {
+            changedNames.add(table.getName());
           }
-          tableToAsset(table).ifPresent(assetCallback::onAssetUpdated);
-        }
+        });
+    fetchChanged(changedNames, name -> snowflakeApis.tables().fetchTable(database, schemaName, name), deepListing, Table::getName,
+        table -> {
+          // dropped tables with the same name were already handled in phase one
+          if (table.getDroppedOn() == null) {
+            synchronizeTable(table, assetCallback);
+          }
+        });
+  }
+
+  private void synchronizeTable(Table table, AssetCallback assetCallback) {
+    var id = toId(table);
+    log.info("Synchronizing table {}", id);
+    if (table.getDroppedOn() != null) {
+      assetCallback.onAssetDeleted(id);
+      return;
+    }
+    rememberChangeMarker(id, changeMarker(table));
+    tableToAsset(table, id).ifPresent(assetCallback::onAssetUpdated);
+  }
+
+  /**
+   * Synchronizes the views of a schema, in two phases in a shallow run, like {@link #synchronizeTables(SchemaInfo, AssetCallback)}.
+   */
+  private void synchronizeViews(SchemaInfo schema, AssetCallback assetCallback) {
+    var database = schema.getDatabaseName();
+    var schemaName = schema.getName();
+    BiFunction<Integer, String, List<View>> deepListing = (showLimit, fromName) -> snowflakeApis.views()
+        .listViews(database, schemaName, objectFilter.like(), null, showLimit, fromName, true);
+    if (!shallowRun) {
+      forEachPage(deepListing, View::getName, view -> synchronizeView(view, assetCallback));
+      return;
+    }
 
-        var viewApi = new ViewApi(snowflakeApiClient);
-        var views = viewApi.listViews(database.getName(), schema.getName(), null, null, null, null, true);
-        for (var view : views) {
-          log.info("Synchronizing view {}", toId(view));
-          viewToAsset(view).ifPresent(assetCallback::onAssetUpdated);
+    var changedNames = new HashSet<String>();
+    forEachPage((showLimit, fromName) -> snowflakeApis.views()
+            .listViews(database, schemaName, objectFilter.like(), null, showLimit, fromName, false),
+        View::getName,
+        view -> {
+          if (includeView(view) && !isUnchanged(toId(view), database, changeMarker(view))) {
+            changedNames.add(view.getName());
+          }
+        });
+    fetchChanged(changedNames, name -> snowflakeApis.views().fetchView(database, schemaName, name), deepListing, View::getName,
+        view -> synchronizeView(view, assetCallback));
+  }
+
+  private void synchronizeView(View view, AssetCallback assetCallback) {
+    var id = toId(view);
+    log.info("Synchronizing view {}", id);
+    rememberChangeMarker(id, changeMarker(view));
+    viewToAsset(view, id).ifPresent(assetCallback::onAssetUpdated);
+  }
+
+  /**
+   * Phase two of the two-phase crawl: fetches the changed objects one by one if they are few, else lists the schema again with
+   * columns and picks the changed objects. Objects dropped in the meantime are skipped.
+   */
+  private <T> void fetchChanged(Set<String> changedNames, Function<String, T> fetch, BiFunction<Integer, String, List<T>> deepListing,
+      Function<T, String> nameOf, Consumer<T> action) {
+    if (changedNames.isEmpty()) {
+      return;
+    }
+    if (changedNames.size() > MAX_SINGLE_FETCHES) {
+      forEachPage(deepListing, nameOf, object -> {
+        if (changedNames.contains(nameOf.apply(object))) {
+          action.accept(object);
+        }
+      });
+      return;
+    }
+    for (var name : changedNames) {
+      try {
+        action.accept(fetch.apply(name));
+      } catch (ApiException e) {
+        if (e.getCode() != 404) {
+          throw e;
         }
+        log.debug("Skipping {}, it was dropped after it was listed", name);
+      }
+    }
+  }
+
+  /**
+   * Whether the object has the same change marker as in an earlier run and the fingerprint of the previous run is kept.
+   */
+  private boolean isUnchanged(String id, String database, long changeMarker) {
+    var key = FingerprintTable.hash(id);
+    if (previousChangeMarkers.get(key, ~changeMarker) != changeMarker || !incrementalAssetCallback.onAssetUnchanged(id, database)) {
+      return false;
+    }
+    rememberChangeMarker(key, changeMarker);
+    return true;
+  }
 
+  private void rememberChangeMarker(String id, long changeMarker) {
+    if (snowflakeProperties.assets().columnrefreshinterval() != null && fingerprintStore != null) {
+      rememberChangeMarker(FingerprintTable.hash(id), changeMarker);
+    }
+  }
+
+  private void rememberChangeMarker(long key, long changeMarker) {
+    var markers = changeMarkers;
+    synchronized (markers) {
+      markers.put(key, changeMarker);
+    }
+  }
+
+  private static long changeMarker(Table table) {
+    return changeMarker(table.getCreatedOn(), table.getRows(), table.getBytes(), table.getComment(), table.getKind(),
+        table.getTableType(), table.getOwner());
+  }
+
+  private static long changeMarker(View view) {
+    return changeMarker(view.getCreatedOn(), view.getComment(), view.getKind(), view.getSecure(), view.getOwner());
+  }
+
+  private static long changeMarker(Object... values) {
+    long marker = 1125899906842597L;
+    for (var value : values) {
+      marker = 31 * marker + Objects.hashCode(value);
+    }
+    return marker;
+  }
+
+  /**
+   * Passes the objects of a listing to the action, one page at a time, so only a single page is held in memory. Without a
+   * configured page size, the listing is fetched at once.
+   * <p>
+   * Snowflake lists objects ordered by name and continues a listing at the object named {@code fromName}. As this object was
+   * already part of the previous page, the objects with that name are skipped on the next page. With history, several objects
+   * can have the same name, so only as many of them are skipped as the previous page contained.
+   */
+  private <T> void forEachPage(BiFunction<Integer, String, List<T>> fetchPage, Function<T, String> nameOf, Consumer<T> action) {
+    forEachPage(pageSize(), fetchPage, nameOf, action);
+  }
+
+  static <T> void forEachPage(Integer pageSize, BiFunction<Integer, String, List<T>> fetchPage, Function<T, String> nameOf,
+      Consumer<T> action) {
+    if (pageSize == null) {
+      fetchPage.apply(null, null).forEach(action);
+      return;
+    }
+
+    String fromName = null;
+    int seenWithFromName = 0;
+    while (true) {
+      var page = fetchPage.apply(pageSize, fromName);
+      int skip = 0;
+      while (skip < page.size() && skip < seenWithFromName && nameOf.apply(page.get(skip)).equals(fromName)) {
+        skip++;
+      }
+      for (int i = skip; i < page.size(); i++) {
+        action.accept(page.get(i));
+      }
+      if (page.size() < pageSize) {
+        return;
       }
 
+      var lastName = nameOf.apply(page.get(page.size() - 1));
+      if (lastName.equals(fromName)) {
+        // a full page of objects with the same name, the next page would start at the same object again
+        log.warn("Listing does not advance past {} with page size {}, skipping the remaining objects", lastName, pageSize);
+        return;
+      }
+      int withLastName = 0;
+      for (int i = page.size() - 1; i >= 0 && nameOf.apply(page.get(i)).equals(lastName); i--) {
+        withLastName++;
+      }
+      fromName = lastName;
+      seenWithFromName = withLastName;
+    }
+  }
+
+  private Integer pageSize() {
+    var pageSize = snowflakeProperties.assets().pagesize();
+    return pageSize != null && pageSize > 0 ? pageSize : null;
+  }
+
+  /**
+   * Duration of synchronizing a database, tagged with the database name.
+   */
+  protected Timer databaseTimer(Database database) {
+    return Timer.builder("snowflake.assets.database.duration")
+        .description("Duration of synchronizing a Snowflake database")
+        .tag("database", database.getName())
+        .register(meterRegistry);
+  }
+
+  /**
+   * Duration of synchronizing a schema. Tagged with the database only, as schemas are too many to be tags.
+   */
+  private Timer schemaTimer(String databaseName) {
+    return Timer.builder("snowflake.assets.schema.duration")
+        .description("Duration of synchronizing a Snowflake schema")
+        .tag("database", databaseName)
+        .register(meterRegistry);
+  }
+
+  private int concurrency() {
+    var concurrency = snowflakeProperties.assets().concurrency();
+    return concurrency != null ? concurrency : 1;
+  }
+
+  private int databaseConcurrency(int concurrency) {
+    var databaseConcurrency = snowflakeProperties.assets().databaseconcurrency();
+    if (databaseConcurrency == null || databaseConcurrency < 1) {
+      return concurrency;
+    }
+    return Math.min(databaseConcurrency, concurrency);
+  }
+
+  /**
+   * Serializes the callback invocations, as the callbacks of the synchronizer are not meant to be called concurrently.
+   */
+  record SynchronizedAssetCallback(AssetCallback delegate) implements AssetCallback {
 
+    @Override
+    public synchronized void onAssetUpdated(Asset asset) {
+      delegate.onAssetUpdated(asset);
+    }
+
+    @Override
+    public synchronized void onAssetDeleted(String id) {
+      delegate.onAssetDeleted(id);
+    }
+  }
+
+  /**
+   * Counts the assets passed to the synchronizer by asset type.
+   */
+  private static class MeteredAssetCallback implements AssetCallback {
+
+    private final AssetCallback delegate;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> updatedCounters = new ConcurrentHashMap<>();
+    private final Counter deletedCounter;
+
+    MeteredAssetCallback(AssetCallback delegate, MeterRegistry meterRegistry) {
+      this.delegate = delegate;
+      this.meterRegistry = meterRegistry;
+      this.deletedCounter = Counter.builder("snowflake.assets.deleted")
+          .description("Assets deleted in Data Mesh Manager")
+          .register(meterRegistry);
+    }
+
+    @Override
+    public void onAssetUpdated(Asset asset) {
+      delegate.onAssetUpdated(asset);
+      var type = asset.getInfo() != null && asset.getInfo().getType() != null ? asset.getInfo().getType() : "unknown";
+      updatedCounters.computeIfAbsent(type, key -> Counter.builder("snowflake.assets.emitted")
+              .description("Assets sent to Data Mesh Manager")
+              .tag("type", key)
+              .register(meterRegistry))
+          .increment();
+    }
+
+    @Override
+    public void onAssetDeleted(String id) {
+      delegate.onAssetDeleted(id);
+      deletedCounter.increment();
     }
   }
 
@@ -113,17 +697,21 @@ public class SnowflakeAssetsProvider implements DataMeshManagerAssetsProvider {
 
 
   protected Optional<Asset> tableToAsset(Table table) {
+    return tableToAsset(table, toId(table));
+  }
+
+  private Optional<Asset> tableToAsset(Table table, String id) {
     if (!includeTable(table)) {
       log.debug("Skipping table {}", table.getName());
       return Optional.empty();
     }
 
     Asset asset = new Asset()
-        .id(toId(table))
+        .id(id)
         .info(new AssetInfo()
             .name(table.getName())
             .source("snowflake")
-            .qualifiedName(table.getDatabaseName() + "." + table.getSchemaName() + "." + table.getName())
+            .qualifiedName(schemaPrefixes(table.getDatabaseName(), table.getSchemaName()).qualifiedName() + table.getName())
             .type("snowflake_table")
             .status("active")
             .description(table.getComment()))
@@ -137,29 +725,32 @@ public class SnowflakeAssetsProvider implements DataMeshManagerAssetsProvider {
         .putPropertiesItem("owner", table.getOwner());
 
     if (table.getColumns() != null) {
+      var columns = new ArrayList<AssetColumnsInner>(table.getColumns().size());
       for (var column : table.getColumns()) {
-        asset.addColumnsItem(new AssetColumnsInner()
-            .name(column.getName())
-            .type(column.getDatatype())
-            .description(column.getComment()));
+        columns.add(toColumn(column.getName(), column.getDatatype(), column.getComment()));
       }
+      asset.columns(columns);
     }
 
     return Optional.of(asset);
   }
 
   protected Optional<Asset> viewToAsset(View view) {
+    return viewToAsset(view, toId(view));
+  }
+
+  private Optional<Asset> viewToAsset(View view, String id) {
     if (!includeView(view)) {
       log.debug("Skipping view {}", view.getName());
       return Optional.empty();
     }
 
     Asset asset = new Asset()
-        .id(toId(view))
+        .id(id)
         .info(new AssetInfo()
             .name(view.getName())
             .source("snowflake")
-            .qualifiedName(view.getDatabaseName() + "." + view.getSchemaName() + "." + view.getName())
+            .qualifiedName(schemaPrefixes(view.getDatabaseName(), view.getSchemaName()).qualifiedName() + view.getName())
             .type("snowflake_view")
             .status("active")
             .description(view.getComment()))
@@ -173,30 +764,66 @@ public class SnowflakeAssetsProvider implements DataMeshManagerAssetsProvider {
         .putPropertiesItem("owner", view.getOwner());
 
     if (view.getColumns() != null) {
+      var columns = new ArrayList<AssetColumnsInner>(view.getColumns().size());
       for (var column : view.getColumns()) {
-        asset.addColumnsItem(new AssetColumnsInner()
-            .name(column.getName())
-            .type(column.getDatatype())
-            .description(column.getComment()));
+        columns.add(toColumn(column.getName(), column.getDatatype(), column.getComment()));
       }
+      asset.columns(columns);
     }
 
     return Optional.of(asset);
   }
 
+  private static AssetColumnsInner toColumn(String name, String type, String description) {
+    return new AssetColumnsInner()
+        .name(name)
+        .type(type)
+        .description(description);
+  }
+
 
-  private String toId(SchemaInfo schema) {
-    return "snowflake-%s-%s-%s".formatted(snowflakeProperties.account(), schema.getDatabaseName(), schema.getName());
+  String toId(SchemaInfo schema) {
+    return idPrefix + schema.getDatabaseName() + "-" + schema.getName();
   }
 
-  private String toId(Table table) {
-    return "snowflake-%s-%s-%s-%s".formatted(snowflakeProperties.account(), table.getDatabaseName(), table.getName(), table.getName());
+  /**
+   * {@code snowflake-<account>-<database>-<schema>-<table>} with {@code SCHEMAIDS}, otherwise the legacy
+   * {@code snowflake-<account>-<database>-<table>-<table>}.
+   */
+  String toId(Table table) {
+    return toId(schemaPrefixes(table.getDatabaseName(), table.getSchemaName()), table.getName());
   }
 
-  private String toId(View view) {
-    return "snowflake-%s-%s-%s-%s".formatted(snowflakeProperties.account(), view.getDatabaseName(), view.getName(), view.getName());
+  /**
+   * {@code snowflake-<account>-<database>-<schema>-<view>} with {@code SCHEMAIDS}, otherwise the legacy
+   * {@code snowflake-<account>-<database>-<view>-<view>}.
+   */
+  String toId(View view) {
+    return toId(schemaPrefixes(view.getDatabaseName(), view.getSchemaName()), view.getName());
   }
 
+  private String toId(SchemaPrefixes prefixes, String name) {
+    return schemaIds ? prefixes.id() + name : prefixes.id() + name + "-" + name;
+  }
+
+  private SchemaPrefixes schemaPrefixes(String database, String schema) {
+    var prefixes = schemaPrefixes.get();
+    if (prefixes == null || !Objects.equals(prefixes.database(), database) || !Objects.equals(prefixes.schema(), schema)) {
+      var id = schemaIds ? idPrefix + database + "-" + schema + "-" : idPrefix + database + "-";
+      prefixes = new SchemaPrefixes(database, schema, id, database + "." + schema + ".");
+      schemaPrefixes.set(prefixes);
+    }
+    return prefixes;
+  }
+
+  private record SchemaPrefixes(String database, String schema, String id, String qualifiedName) {
+
+  }
+
+  /**
+   * Whether the database is synchronized. The {@code SNOWFLAKE} and {@code SNOWFLAKE_SAMPLE_DATA} databases are always skipped,
+   * the others are matched against the configured filter.
+   */
   protected boolean includeDatabase(Database database) {
     if (Objects.equals(database.getName(), "SNOWFLAKE_SAMPLE_DATA")) {
       return false;
@@ -205,22 +832,22 @@ public class SnowflakeAssetsProvider implements DataMeshManagerAssetsProvider {
       return false;
     }
 
-    return true;
+    return databaseFilter.matches(database.getName());
   }
 
   protected boolean includeSchema(SchemaInfo schema) {
     if (Objects.equals(schema.getName(), "INFORMATION_SCHEMA")) {
       return false;
     }
-    return true;
+    return schemaFilter.matches(schema.getName());
   }
 
   protected boolean includeTable(Table table) {
-    return true;
+    return objectFilter.matches(table.getName());
   }
 
   protected boolean includeView(View view) {
-    return true;
+    return objectFilter.matches(view.getName());
   }
 
 }
@@ -0,0 +1,181 @@
+package datameshmanager.snowflake;
+
+import static datameshmanager.snowflake.SnowflakeSql.identifier;
+import static datameshmanager.snowflake.SnowflakeSql.literal;
+
+import java.util.Locale;
+
+/**
+ * A single change that access management applies to Snowflake. Grants of a lower {@link #stage()} are applied before grants of
+ * a higher stage, grants of the same stage are independent of each other.
+ */
+public sealed interface SnowflakeGrant {
+
+  int stage();
+
+  String description();
+
+  /**
+   * The equivalent SQL statement, for the SQL API.
+   */
+  String toSql();
+
+  record CreateRole(String roleName, String comment) implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 0;
+    }
+
+    @Override
+    public String description() {
+      return "create role %s".formatted(roleName);
+    }
+
+    @Override
+    public String toSql() {
+      return "CREATE ROLE IF NOT EXISTS %s COMMENT = %s".formatted(identifier(roleName), literal(comment));
+    }
+  }
+
+  record RoleToRole(String roleName, String parentRoleName) implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 1;
+    }
+
+    @Override
+    public String description() {
+      return "grant role %s to role %s".formatted(roleName, parentRoleName);
+    }
+
+    @Override
+    public String toSql() {
+      return "GRANT ROLE %s TO ROLE %s".formatted(identifier(roleName), identifier(parentRoleName));
+    }
+  }
+
+  record RoleToUser(String roleName, String userName) implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 1;
+    }
+
+    @Override
+    public String description() {
+      return "grant role %s to user %s".formatted(roleName, userName);
+    }
+
+    @Override
+    public String toSql() {
+      return "GRANT ROLE %s TO USER %s".formatted(identifier(roleName), identifier(userName));
+    }
+  }
+
+  /**
+   * USAGE on all schemas of a database.
+   */
+  record DatabaseSchemasUsage(String databaseName, String roleName) implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 1;
+    }
+
+    @Override
+    public String description() {
+      return "grant USAGE on all schemas in database %s to role %s".formatted(databaseName, roleName);
+    }
+
+    @Override
+    public String toSql() {
+      return "GRANT USAGE ON ALL SCHEMAS IN DATABASE %s TO ROLE %s".formatted(identifier(databaseName), identifier(roleName));
+    }
+  }
+
+  /**
+   * SELECT on all (or all future) objects of a type in a schema.
+   *
+   * @param securableType TABLE or VIEW
+   */
+  record SchemaObjectsSelect(String securableType, String databaseName, String schemaName, String roleName, boolean future)
+      implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 1;
+    }
+
+    @Override
+    public String description() {
+      return "grant SELECT on all %s%ss in schema %s.%s to role %s"
+          .formatted(future ? "future " : "", securableType.toLowerCase(Locale.ROOT), databaseName, schemaName, roleName);
+    }
+
+    @Override
+    public String toSql() {
+      return "GRANT SELECT ON %s %sS IN SCHEMA %s TO ROLE %s"
+          .formatted(future ? "FUTURE" : "ALL", securableType, identifier(databaseName, schemaName), identifier(roleName));
+    }
+  }
+
+  record RevokeRoleFromRole(String roleName, String parentRoleName) implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 1;
+    }
+
+    @Override
+    public String description() {
+      return "revoke role %s from role %s".formatted(roleName, parentRoleName);
+    }
+
+    @Override
+    public String toSql() {
+      return "REVOKE ROLE %s FROM ROLE %s".formatted(identifier(roleName), identifier(parentRoleName));
+    }
+  }
+
+  record RevokeRoleFromUser(String roleName, String userName) implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 1;
+    }
+
+    @Override
+    public String description() {
+      return "revoke role %s from user %s".formatted(roleName, userName);
+    }
+
+    @Override
+    public String toSql() {
+      return "REVOKE ROLE %s FROM USER %s".formatted(identifier(roleName), identifier(userName));
+    }
+  }
+
+  /**
+   * Drops a role, which also revokes it from all roles and users. Applied last, after the grants of the other stages.
+   */
+  record DropRole(String roleName) implements SnowflakeGrant {
+
+    @Override
+    public int stage() {
+      return 2;
+    }
+
+    @Override
+    public String description() {
+      return "drop role %s".formatted(roleName);
+    }
+
+    @Override
+    public String toSql() {
+      return "DROP ROLE IF EXISTS %s".formatted(identifier(roleName));
+    }
+  }
+
+}
@@ -0,0 +1,51 @@
+package datameshmanager.snowflake;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Applies the grants of an access to Snowflake, either through the REST API ({@link SnowflakeRestGrantExecutor}) or the SQL API
+ * ({@link SnowflakeSqlGrantExecutor}).
+ */
+public interface SnowflakeGrantExecutor extends AutoCloseable {
+
+  /**
+   * Applies the grants in the order of their stage.
+   *
+   * @return a result for every grant
+   */
+  List<GrantResult> execute(Collection<SnowflakeGrant> grants);
+
+  /**
+   * Releases the threads of the executor, if it has any.
+   */
+  @Override
+  default void close() {
+  }
+
+  record GrantResult(SnowflakeGrant grant, Status status, String error) {
+
+    static GrantResult succeeded(SnowflakeGrant grant) {
+      return new GrantResult(grant, Status.SUCCEEDED, null);
+    }
+
+    static GrantResult failed(SnowflakeGrant grant, Exception e) {
+      return new GrantResult(grant, Status.FAILED, e.getMessage());
+    }
+
+    static GrantResult skipped(SnowflakeGrant grant) {
+      return new GrantResult(grant, Status.SKIPPED, null);
+    }
+
+    public boolean failed() {
+      return status != Status.SUCCEEDED;
+    }
+  }
+
+  enum Status {
+    SUCCEEDED,
+    FAILED,
+    SKIPPED
+  }
+
+}
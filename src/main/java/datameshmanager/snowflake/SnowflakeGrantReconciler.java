@@ -0,0 +1,436 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.sdk.client.model.Access;
+import datameshmanager.snowflake.SnowflakeGrant.CreateRole;
+import datameshmanager.snowflake.SnowflakeGrant.DatabaseSchemasUsage;
+import datameshmanager.snowflake.SnowflakeGrant.DropRole;
+import datameshmanager.snowflake.SnowflakeGrant.RevokeRoleFromRole;
+import datameshmanager.snowflake.SnowflakeGrant.RevokeRoleFromUser;
+import datameshmanager.snowflake.SnowflakeGrant.RoleToRole;
+import datameshmanager.snowflake.SnowflakeGrant.RoleToUser;
+import datameshmanager.snowflake.SnowflakeGrant.SchemaObjectsSelect;
+import datameshmanager.snowflake.SnowflakeGrantExecutor.GrantResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Periodically brings the roles and grants managed by access management in line with the accesses in Data Mesh Manager, so that
+ * missed events and grants changed by hand do not leave Snowflake drifting.
+ * <p>
+ * The desired state is built from all accesses, with the same roles and grants that the access events apply. The actual state
+ * is read in bulk: the managed roles with one listing per role prefix, and the role and user grants with one query each on the
+ * {@code SNOWFLAKE.ACCOUNT_USAGE} views. The differences are applied as one batch through the grant executor:
+ * <ul>
+ *   <li>missing roles, role grants and user grants are granted,</li>
+ *   <li>the schema grants of an access role are applied again if the role has no USAGE on its schema,</li>
+ *   <li>grants of access roles to managed roles, and grants of access and team roles to users, that no access needs are revoked,</li>
+ *   <li>{@code access_} roles without an active access and the roles of deactivated accesses are dropped.</li>
+ * </ul>
+ * The ACCOUNT_USAGE views lag behind by up to two hours. All changes are idempotent, so a change that is not visible yet is at
+ * most applied twice. As the views may still show grants of a role that was dropped, all desired grants of a role are applied
+ * whenever the role is created, and grants of roles that do not exist are not revoked. If the desired state of any access
+ * cannot be determined, nothing is revoked or dropped in that run.
+ * <p>
+ * The roles are listed before the accesses are loaded, so a role created by an access event during the run is not taken for
+ * an orphan. The changes are applied while holding the access locks of the handler, and the changes of an access whose event
+ * was processed since the run started are left to the next run, as the event already applied the current state.
+ */
+public class SnowflakeGrantReconciler implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeGrantReconciler.class);
+
+  private static final String ROLE_GRANTS_QUERY = """
+      SELECT GRANTED_ON, TABLE_CATALOG, NAME, GRANTEE_NAME
+      FROM SNOWFLAKE.ACCOUNT_USAGE.GRANTS_TO_ROLES
+      WHERE DELETED_ON IS NULL AND GRANTED_TO = 'ROLE' AND PRIVILEGE = 'USAGE' AND GRANTED_ON IN ('ROLE', 'SCHEMA')""";
+
+  private static final String USER_GRANTS_QUERY = """
+      SELECT ROLE, GRANTEE_NAME
+      FROM SNOWFLAKE.ACCOUNT_USAGE.GRANTS_TO_USERS
+      WHERE DELETED_ON IS NULL""";
+
+  private static final String ACCESS_ROLE_PREFIX = "ACCESS_";
+  private static final String TEAM_ROLE_PREFIX = "TEAM_";
+
+  private final SnowflakeAccessManagementHandler handler;
+  private final DataMeshManagerLookups lookups;
+  private final SnowflakeApis snowflakeApis;
+  private final SnowflakeRoleCatalog roleCatalog;
+  private final SnowflakeSqlApiClient sqlApiClient;
+  private final SnowflakeGrantExecutor grantExecutor;
+  private final boolean dryRun;
+  private final MeterRegistry meterRegistry;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * The reconciler shares the lookups, the role catalog and the grant executor with the handler, so the handler sees the roles
+   * that the reconciler creates and drops.
+   */
+  public SnowflakeGrantReconciler(SnowflakeAccessManagementHandler handler, SnowflakeApis snowflakeApis,
+      SnowflakeSqlApiClient sqlApiClient, boolean dryRun, MeterRegistry meterRegistry) {
+    this.handler = handler;
+    this.lookups = handler.lookups();
+    this.snowflakeApis = snowflakeApis;
+    this.roleCatalog = handler.roleCatalog();
+    this.sqlApiClient = sqlApiClient;
+    this.grantExecutor = handler.grantExecutor();
+    this.dryRun = dryRun;
+    this.meterRegistry = meterRegistry;
+  }
+
+  /**
+   * Reconciles every {@code interval}, starting one interval from now.
+   */
+  public synchronized void start(Duration interval) {
+    var threadFactory = new CustomizableThreadFactory("snowflake-reconciliation-");
+    threadFactory.setDaemon(true);
+    scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+    scheduler.scheduleWithFixedDelay(this::reconcileSafely, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private void reconcileSafely() {
+    try {
+      reconcile();
+    } catch (RuntimeException e) {
+      log.warn("Reconciliation of Snowflake grants failed", e);
+    }
+  }
+
+  /**
+   * Computes the changes that bring Snowflake to the desired state and applies them, unless this is a dry run.
+   *
+   * @return the changes
+   */
+  public List<SnowflakeGrant> reconcile() {
+    var start = System.nanoTime();
+    var outcome = "failure";
+    try {
+      var actualState = new ActualState();
+      listManagedRoles(actualState);
+      var desiredState = desiredState();
+      readGrants(actualState);
+      var changes = changes(desiredState, actualState);
+      var applied = apply(changes, start);
+      outcome = "success";
+      return applied;
+    } finally {
+      Timer.builder("snowflake.accessmanagement.reconciliation")
+          .description("Duration of reconciling the Snowflake grants with the accesses")
+          .tag("outcome", outcome)
+          .register(meterRegistry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private DesiredState desiredState() {
+    var desiredState = new DesiredState();
+    var accesses = lookups.getAccesses();
+    log.info("Reconciling Snowflake grants with {} accesses", accesses.size());
+    for (var access : accesses) {
+      try (var scope = lookups.openScope()) {
+        addAccess(desiredState, access);
+      } catch (RuntimeException e) {
+        log.warn("Could not determine the grants of access {}", access.getId(), e);
+        desiredState.failedAccesses++;
+      }
+    }
+    return desiredState;
+  }
+
+  private void addAccess(DesiredState desiredState, Access access) {
+    if (!handler.isApplicable(access)) {
+      return;
+    }
+    var accessRoleName = SnowflakeAccessManagementHandler.getAccessRoleName(access);
+    if (!SnowflakeAccessManagementHandler.isActive(access)) {
+      desiredState.rolesOfInactiveAccesses.add(accessRoleName);
+      desiredState.accessIdsByRole.putIfAbsent(key(accessRoleName), access.getId());
+      return;
+    }
+    desiredState.accessRoles.add(key(accessRoleName));
+    desiredState.accessIdsByRole.putIfAbsent(key(accessRoleName), access.getId());
+    for (var grant : handler.desiredGrants(access)) {
+      desiredState.grants.putIfAbsent(grant, access.getId());
+    }
+  }
+
+  private void listManagedRoles(ActualState actualState) {
+    for (var prefix : SnowflakeRoleCatalog.MANAGED_ROLE_PREFIXES) {
+      for (var role : snowflakeApis.roles().listRoles(prefix + "%", null, null, null)) {
+        // LIKE is case-insensitive and "_" matches any character
+        if (role.getName().toLowerCase(Locale.ROOT).startsWith(prefix)) {
+          actualState.managedRoles.put(key(role.getName()), role.getName());
+        }
+      }
+    }
+  }
+
+  private void readGrants(ActualState actualState) {
+    forEachRow(sqlApiClient.execute(ROLE_GRANTS_QUERY), row -> {
+      var name = row.get("NAME");
+      var grantee = row.get("GRANTEE_NAME");
+      if ("ROLE".equals(row.get("GRANTED_ON"))) {
+        actualState.roleGrants.put(new Edge(key(name), key(grantee)), new RoleToRole(name, grantee));
+      } else {
+        actualState.schemaUsages.add(schemaKey(grantee, row.get("TABLE_CATALOG"), name));
+      }
+    });
+    forEachRow(sqlApiClient.execute(USER_GRANTS_QUERY), row -> {
+      var role = row.get("ROLE");
+      var user = row.get("GRANTEE_NAME");
+      actualState.userGrants.put(new Edge(key(role), key(user)), new RoleToUser(role, user));
+    });
+    log.info("Found {} managed roles, {} role grants, {} schema grants and {} user grants in Snowflake",
+        actualState.managedRoles.size(), actualState.roleGrants.size(), actualState.schemaUsages.size(),
+        actualState.userGrants.size());
+  }
+
+  /**
+   * The changes, each with the ID of the access it belongs to, or {@code null} if it belongs to no single access.
+   */
+  private Map<SnowflakeGrant, String> changes(DesiredState desiredState, ActualState actualState) {
+    var changes = new LinkedHashMap<SnowflakeGrant, String>();
+    var desiredRoles = new HashSet<String>();
+    var createdRoles = new HashSet<String>();
+    var desiredRoleGrants = new HashSet<Edge>();
+    var desiredUserGrants = new HashSet<Edge>();
+    var managedParentRoles = new HashSet<String>();
+    var rolesGrantedToUsers = new HashSet<String>();
+
+    desiredState.grants.forEach((grant, accessId) -> {
+      if (grant instanceof CreateRole createRole) {
+        desiredRoles.add(key(createRole.roleName()));
+        if (!roleExists(actualState, createRole.roleName())) {
+          createdRoles.add(key(createRole.roleName()));
+          changes.put(createRole, accessId);
+        }
+      }
+    });
+    // the grants of a created role are applied even if ACCOUNT_USAGE still shows them, they may belong to a dropped role
+    desiredState.grants.forEach((grant, accessId) -> {
+      if (grant instanceof RoleToRole roleToRole) {
+        var edge = new Edge(key(roleToRole.roleName()), key(roleToRole.parentRoleName()));
+        desiredRoleGrants.add(edge);
+        managedParentRoles.add(edge.grantee());
+        if (!actualState.roleGrants.containsKey(edge) || createdRoles.contains(edge.role()) || createdRoles.contains(edge.grantee())) {
+          changes.putIfAbsent(roleToRole, accessId);
+        }
+      } else if (grant instanceof RoleToUser roleToUser) {
+        var edge = new Edge(key(roleToUser.roleName()), key(roleToUser.userName()));
+        desiredUserGrants.add(edge);
+        rolesGrantedToUsers.add(edge.role());
+        if (!actualState.userGrants.containsKey(edge) || createdRoles.contains(edge.role())) {
+          changes.putIfAbsent(roleToUser, accessId);
+        }
+      } else if (grant instanceof SchemaObjectsSelect schemaObjectsSelect) {
+        var schemaKey = schemaKey(schemaObjectsSelect.roleName(), schemaObjectsSelect.databaseName(), schemaObjectsSelect.schemaName());
+        if (!actualState.schemaUsages.contains(schemaKey) || createdRoles.contains(key(schemaObjectsSelect.roleName()))) {
+          changes.putIfAbsent(new DatabaseSchemasUsage(schemaObjectsSelect.databaseName(), schemaObjectsSelect.roleName()), accessId);
+          changes.putIfAbsent(schemaObjectsSelect, accessId);
+        }
+      }
+    });
+
+    if (desiredState.failedAccesses > 0) {
+      log.warn("Skipping revokes and drops, as the grants of {} accesses could not be determined", desiredState.failedAccesses);
+      return changes;
+    }
+
+    var droppedRoles = new HashSet<String>();
+    actualState.managedRoles.forEach((roleKey, roleName) -> {
+      if (roleKey.startsWith(ACCESS_ROLE_PREFIX) && !desiredRoles.contains(roleKey)) {
+        droppedRoles.add(roleKey);
+        changes.put(new DropRole(roleName), desiredState.accessIdsByRole.get(roleKey));
+      }
+    });
+    for (var roleName : desiredState.rolesOfInactiveAccesses) {
+      var roleKey = key(roleName);
+      if (!desiredRoles.contains(roleKey) && !droppedRoles.contains(roleKey) && roleExists(actualState, roleName)) {
+        droppedRoles.add(roleKey);
+        changes.put(new DropRole(roleName), desiredState.accessIdsByRole.get(roleKey));
+      }
+    }
+
+    // ACCOUNT_USAGE still shows the grants of roles dropped within the last hours, revoking them would fail
+    actualState.managedRoles.keySet().stream()
+        .filter(roleKey -> !roleKey.startsWith(ACCESS_ROLE_PREFIX))
+        .forEach(managedParentRoles::add);
+    actualState.roleGrants.forEach((edge, roleToRole) -> {
+      var isAccessRole = edge.role().startsWith(ACCESS_ROLE_PREFIX) || desiredState.accessRoles.contains(edge.role());
+      if (isAccessRole && managedParentRoles.contains(edge.grantee()) && !desiredRoleGrants.contains(edge)
+          && !droppedRoles.contains(edge.role()) && !droppedRoles.contains(edge.grantee())
+          && roleExists(actualState, roleToRole.roleName()) && roleExists(actualState, roleToRole.parentRoleName())) {
+        var revoke = new RevokeRoleFromRole(roleToRole.roleName(), roleToRole.parentRoleName());
+        changes.put(revoke, desiredState.accessIdsByRole.get(edge.role()));
+      }
+    });
+
+    actualState.managedRoles.keySet().stream()
+        .filter(roleKey -> roleKey.startsWith(ACCESS_ROLE_PREFIX) || roleKey.startsWith(TEAM_ROLE_PREFIX))
+        .forEach(rolesGrantedToUsers::add);
+    actualState.userGrants.forEach((edge, roleToUser) -> {
+      if (rolesGrantedToUsers.contains(edge.role()) && !desiredUserGrants.contains(edge) && !droppedRoles.contains(edge.role())
+          && roleExists(actualState, roleToUser.roleName())) {
+        changes.put(new RevokeRoleFromUser(roleToUser.roleName(), roleToUser.userName()), desiredState.accessIdsByRole.get(edge.role()));
+      }
+    });
+    return changes;
+  }
+
+  /**
+   * Roles with a managed prefix are looked up in the listing, other roles, e.g. custom access roles, in the role catalog.
+   */
+  private boolean roleExists(ActualState actualState, String roleName) {
+    var roleKey = key(roleName);
+    var managed = SnowflakeRoleCatalog.MANAGED_ROLE_PREFIXES.stream()
+        .anyMatch(prefix -> roleKey.startsWith(prefix.toUpperCase(Locale.ROOT)));
+    if (managed) {
+      return actualState.managedRoles.containsKey(roleKey);
+    }
+    return roleCatalog.findRole(roleName).isPresent();
+  }
+
+  /**
+   * Applies the changes, except those of accesses with an event since the start of the run.
+   *
+   * @return the changes that were applied, or would have been in a dry run
+   */
+  private List<SnowflakeGrant> apply(Map<SnowflakeGrant, String> changes, long runStart) {
+    if (changes.isEmpty()) {
+      log.info("Snowflake grants are in line with the accesses");
+      return List.of();
+    }
+    var accessIds = changes.values().stream().filter(Objects::nonNull).collect(Collectors.toSet());
+    return handler.withAccessLocks(accessIds, () -> {
+      var applicable = new ArrayList<SnowflakeGrant>(changes.size());
+      var skipped = 0;
+      for (var change : changes.entrySet()) {
+        if (change.getValue() != null && handler.hasEventSince(change.getValue(), runStart)) {
+          skipped++;
+        } else {
+          applicable.add(change.getKey());
+        }
+      }
+      if (skipped > 0) {
+        log.info("Skipping {} changes of accesses that were updated by an event during the reconciliation", skipped);
+      }
+      apply(applicable);
+      return List.copyOf(applicable);
+    });
+  }
+
+  private void apply(List<SnowflakeGrant> changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    for (var change : changes) {
+      Counter.builder("snowflake.accessmanagement.reconciliation.changes")
+          .description("Changes applied by the reconciliation of Snowflake grants")
+          .tag("type", changeType(change))
+          .tag("dryRun", String.valueOf(dryRun))
+          .register(meterRegistry)
+          .increment();
+    }
+    if (dryRun) {
+      changes.forEach(change -> log.info("Reconciliation would {}", change.description()));
+      log.info("Reconciliation found {} changes, not applied in dry run", changes.size());
+      return;
+    }
+
+    var results = grantExecutor.execute(changes);
+    var failedResults = results.stream().filter(GrantResult::failed).toList();
+    log.info("Reconciliation applied {} of {} changes", results.size() - failedResults.size(), results.size());
+    for (var failedResult : failedResults) {
+      log.warn("Reconciliation change {}: {} {}", failedResult.status(), failedResult.grant().description(),
+          failedResult.error() != null ? failedResult.error() : "");
+    }
+  }
+
+  private static String changeType(SnowflakeGrant change) {
+    if (change instanceof CreateRole) {
+      return "create";
+    } else if (change instanceof DropRole) {
+      return "drop";
+    } else if (change instanceof RevokeRoleFromRole || change instanceof RevokeRoleFromUser) {
+      return "revoke";
+    }
+    return "grant";
+  }
+
+  private void forEachRow(SnowflakeSqlApiClient.Result result, Consumer<Map<String, String>> action) {
+    for (int partition = 0; partition < result.partitionCount(); partition++) {
+      for (var values : sqlApiClient.fetchPartition(result, partition)) {
+        var row = new HashMap<String, String>();
+        for (int i = 0; i < result.columnNames().size(); i++) {
+          row.put(result.columnNames().get(i).toUpperCase(Locale.ROOT), values.get(i));
+        }
+        action.accept(row);
+      }
+    }
+  }
+
+  /**
+   * Unquoted Snowflake identifiers are case-insensitive.
+   */
+  private static String key(String name) {
+    return name.toUpperCase(Locale.ROOT);
+  }
+
+  private static String schemaKey(String roleName, String databaseName, String schemaName) {
+    return key(roleName) + "\t" + key(databaseName) + "\t" + key(schemaName);
+  }
+
+  /**
+   * A role granted to a role or user, by their upper-case names.
+   */
+  private record Edge(String role, String grantee) {
+
+  }
+
+  private static class DesiredState {
+
+    /**
+     * The desired grants, each with the ID of the first access that needs it.
+     */
+    private final Map<SnowflakeGrant, String> grants = new LinkedHashMap<>();
+    private final Set<String> accessRoles = new HashSet<>();
+    private final Map<String, String> accessIdsByRole = new HashMap<>();
+    private final List<String> rolesOfInactiveAccesses = new ArrayList<>();
+    private int failedAccesses;
+  }
+
+  private static class ActualState {
+
+    private final Map<String, String> managedRoles = new HashMap<>();
+    private final Map<Edge, RoleToRole> roleGrants = new HashMap<>();
+    private final Map<Edge, RoleToUser> userGrants = new HashMap<>();
+    private final Set<String> schemaUsages = new HashSet<>();
+  }
+
+}
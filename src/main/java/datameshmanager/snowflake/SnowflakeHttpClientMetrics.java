@@ -0,0 +1,35 @@
+package datameshmanager.snowflake;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.function.ToIntFunction;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+
+/**
+ * Exposes the statistics of the Snowflake REST API connection pool as gauges, e.g. on {@code /actuator/metrics}.
+ */
+public class SnowflakeHttpClientMetrics implements MeterBinder {
+
+  private final ConnPoolControl<?> connectionPool;
+
+  public SnowflakeHttpClientMetrics(ConnPoolControl<?> connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    gauge(registry, "snowflake.http.connections.leased", "Connections in use", PoolStats::getLeased);
+    gauge(registry, "snowflake.http.connections.available", "Idle connections in the pool", PoolStats::getAvailable);
+    gauge(registry, "snowflake.http.connections.pending", "Requests waiting for a connection", PoolStats::getPending);
+    gauge(registry, "snowflake.http.connections.max", "Maximum number of connections", PoolStats::getMax);
+  }
+
+  private void gauge(MeterRegistry registry, String name, String description, ToIntFunction<PoolStats> stat) {
+    Gauge.builder(name, connectionPool, pool -> stat.applyAsInt(pool.getTotalStats()))
+        .description(description)
+        .register(registry);
+  }
+
+}
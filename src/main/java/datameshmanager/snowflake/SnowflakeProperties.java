@@ -2,6 +2,8 @@ package datameshmanager.snowflake;
 
 import java.io.File;
 import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 @ConfigurationProperties(prefix = "datameshmanager.client.snowflake")
@@ -9,23 +11,243 @@ public record SnowflakeProperties(
     String account,
     String user,
     File privatekeyfile,
+    String warehouse,
+    String baseurl,
+    Duration tokenlifetime,
+    Duration tokenrefreshmargin,
+    HttpProperties http,
     AssetsProperties assets,
-    AccessmanagementProperties accessmanagement
+    AccessmanagementProperties accessmanagement,
+    List<AccountProperties> accounts
 ) {
 
+  public SnowflakeProperties {
+    if (http == null) {
+      http = new HttpProperties(null, null, null, null, null, null, null, null);
+    }
+    if (accounts == null) {
+      accounts = List.of();
+    }
+  }
+
+  /**
+   * The properties of one of the {@link #accounts()}. Settings the account does not override are taken from these properties.
+   * The account name is prepended to the fingerprint and checkpoint file names, so the accounts do not overwrite each other's files.
+   */
+  public SnowflakeProperties forAccount(AccountProperties account) {
+    var accountAssets = assets;
+    if (assets != null) {
+      accountAssets = new AssetsProperties(assets.enabled(), assets.connectorid(), assets.pollinterval(), assets.concurrency(),
+          assets.databaseconcurrency(), accountFile(account, assets.fingerprintfile()), assets.pagesize(), assets.engine(),
+          assets.publishbatchsize(), assets.publishinterval(), assets.publishconcurrency(), assets.sharding(),
+          accountFile(account, assets.checkpointfile()), assets.columnrefreshinterval(), assets.filter(),
+          assets.schemaids());
+    }
+    return new SnowflakeProperties(
+        account.account(),
+        account.user() != null ? account.user() : user,
+        account.privatekeyfile() != null ? account.privatekeyfile() : privatekeyfile,
+        account.warehouse() != null ? account.warehouse() : warehouse,
+        account.baseurl(),
+        tokenlifetime,
+        tokenrefreshmargin,
+        http,
+        accountAssets,
+        accessmanagement,
+        List.of());
+  }
+
+  private static File accountFile(AccountProperties account, File file) {
+    if (file == null) {
+      return null;
+    }
+    return new File(file.getParentFile(), account.account().toLowerCase(Locale.ROOT) + "-" + file.getName());
+  }
+
+  public record AccountProperties(
+      String account,
+      String user,
+      File privatekeyfile,
+      String warehouse,
+      String baseurl
+  ) {
+
+  }
+
+  public record HttpProperties(
+      Integer maxconnections,
+      Integer maxconnectionsperroute,
+      Duration connecttimeout,
+      Duration readtimeout,
+      Duration keepalive,
+      Integer maxconcurrency,
+      Integer maxattempts,
+      Duration maxbackoff
+  ) {
+
+    public HttpProperties {
+      if (maxconnections == null) {
+        maxconnections = 50;
+      }
+      if (maxconnectionsperroute == null) {
+        maxconnectionsperroute = 20;
+      }
+      if (connecttimeout == null) {
+        connecttimeout = Duration.ofSeconds(10);
+      }
+      if (readtimeout == null) {
+        readtimeout = Duration.ofSeconds(60);
+      }
+      if (keepalive == null) {
+        keepalive = Duration.ofMinutes(1);
+      }
+      if (maxconcurrency == null) {
+        maxconcurrency = maxconnectionsperroute;
+      }
+      if (maxattempts == null) {
+        maxattempts = 5;
+      }
+      if (maxbackoff == null) {
+        maxbackoff = Duration.ofSeconds(30);
+      }
+    }
+  }
+
   public record AssetsProperties(
       Boolean enabled,
       String connectorid,
-      Duration pollinterval
+      Duration pollinterval,
+      Integer concurrency,
+      Integer databaseconcurrency,
+      File fingerprintfile,
+      Integer pagesize,
+      Engine engine,
+      Integer publishbatchsize,
+      Duration publishinterval,
+      Integer publishconcurrency,
+      ShardingProperties sharding,
+      File checkpointfile,
+      Duration columnrefreshinterval,
+      FilterProperties filter,
+      Boolean schemaids
+  ) {
+
+    public AssetsProperties {
+      if (engine == null) {
+        engine = Engine.REST;
+      }
+      if (publishinterval == null) {
+        publishinterval = Duration.ofSeconds(1);
+      }
+      if (publishconcurrency == null) {
+        publishconcurrency = 1;
+      }
+      if (sharding == null) {
+        sharding = new ShardingProperties(null, null, null, null, null);
+      }
+      if (filter == null) {
+        filter = new FilterProperties(null, null, null, null, null, null);
+      }
+      if (schemaids == null) {
+        schemaids = false;
+      }
+    }
+
+  }
+
+  public record ShardingProperties(
+      Sharding mode,
+      Integer replicas,
+      Integer replicaindex,
+      String replicaid,
+      Duration leasettl
+  ) {
+
+    public ShardingProperties {
+      if (mode == null) {
+        mode = Sharding.NONE;
+      }
+      if (leasettl == null) {
+        leasettl = Duration.ofMinutes(5);
+      }
+    }
+
+  }
+
+  /**
+   * Include and exclude rules for the names of databases, schemas and objects, i.e. tables and views. See {@link NameFilter}.
+   */
+  public record FilterProperties(
+      List<String> includedatabases,
+      List<String> excludedatabases,
+      List<String> includeschemas,
+      List<String> excludeschemas,
+      List<String> includeobjects,
+      List<String> excludeobjects
   ) {
 
   }
 
   public record AccessmanagementProperties(
       Boolean enabled,
-      String connectorid
+      String connectorid,
+      Duration usercachettl,
+      Duration rolecachettl,
+      Duration lookupcachettl,
+      Integer lookupcachesize,
+      Integer grantparallelism,
+      Backend backend,
+      Integer partitions,
+      Integer queuecapacity,
+      Duration reconcileinterval,
+      Boolean reconciledryrun
   ) {
 
+    public AccessmanagementProperties {
+      if (backend == null) {
+        backend = Backend.REST;
+      }
+      if (reconciledryrun == null) {
+        reconciledryrun = false;
+      }
+    }
+  }
+
+  public enum Engine {
+    /**
+     * Lists the schemas, tables and views of every database through the Snowflake REST API.
+     */
+    REST,
+    /**
+     * Queries the {@code INFORMATION_SCHEMA} of every database through the Snowflake SQL API.
+     */
+    SQL
+  }
+
+  public enum Sharding {
+    /**
+     * This replica synchronizes all databases.
+     */
+    NONE,
+    /**
+     * A fixed number of replicas, each with a configured index.
+     */
+    STATIC,
+    /**
+     * Replicas hold leases in the Data Mesh Manager state repository, so replicas can be added and removed at any time.
+     */
+    LEASE
+  }
+
+  public enum Backend {
+    /**
+     * One Snowflake REST API request per grant.
+     */
+    REST,
+    /**
+     * All grants of an event in one multi-statement request to the Snowflake SQL API.
+     */
+    SQL
   }
 
 
@@ -0,0 +1,70 @@
+package datameshmanager.snowflake;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+
+/**
+ * Records the latency of every Snowflake REST API request as {@code snowflake.http.requests}, tagged by method, endpoint and
+ * status. Object names are replaced in the endpoint, e.g. {@code /api/v2/databases/{name}/schemas/{name}/tables}, to keep the
+ * number of time series bounded.
+ */
+public class SnowflakeRequestMetrics implements ExecChainHandler {
+
+  private final MeterRegistry meterRegistry;
+
+  public SnowflakeRequestMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Override
+  public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+      throws IOException, HttpException {
+    var start = System.nanoTime();
+    var status = "IO_ERROR";
+    try {
+      var response = chain.proceed(request, scope);
+      status = String.valueOf(response.getCode());
+      return response;
+    } finally {
+      Timer.builder("snowflake.http.requests")
+          .description("Latency of Snowflake REST API requests")
+          .tag("method", request.getMethod())
+          .tag("endpoint", endpoint(request.getPath()))
+          .tag("status", status)
+          .register(meterRegistry)
+          .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Replaces every segment after a collection, e.g. after {@code databases}, with a placeholder. The API paths alternate
+   * between collections and names after {@code /api/v2}.
+   */
+  static String endpoint(String path) {
+    if (path == null) {
+      return "";
+    }
+    var queryStart = path.indexOf('?');
+    if (queryStart >= 0) {
+      path = path.substring(0, queryStart);
+    }
+    var prefix = "/api/v2/";
+    if (!path.startsWith(prefix)) {
+      return path;
+    }
+    var segments = path.substring(prefix.length()).split("/");
+    var endpoint = new StringBuilder(path.length()).append("/api/v2");
+    for (int i = 0; i < segments.length; i++) {
+      endpoint.append('/').append(i % 2 == 1 ? "{name}" : segments[i]);
+    }
+    return endpoint.toString();
+  }
+
+}
@@ -0,0 +1,397 @@
+package datameshmanager.snowflake;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.hc.client5.http.classic.ExecChain;
+import org.apache.hc.client5.http.classic.ExecChainHandler;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the requests to the Snowflake REST API, so that concurrent crawls and grants run close to Snowflake's limits
+ * without failing.
+ * <p>
+ * The number of concurrent requests is adapted with AIMD: every successful request increases the limit by about one per round
+ * trip, a throttled request (429) halves it and a latency spike reduces it slightly. A spike is a latency well above the average
+ * of the same endpoint, as listing the tables of a schema takes much longer than reading a role. While Snowflake asks to wait with a
+ * {@code Retry-After} header, no request is sent to that host.
+ * <p>
+ * With several Snowflake accounts, the limit is shared between their hosts. While requests of several hosts are waiting, each
+ * host gets an equal share of the limit, so that an account with many databases cannot starve the others.
+ * <p>
+ * Throttled requests (429, 503) are retried for every method, as Snowflake did not process them. Other server errors and I/O
+ * errors are only retried for idempotent methods. Retries wait with jittered exponential backoff or as long as
+ * {@code Retry-After} asks. This class is thread-safe.
+ */
+public class SnowflakeRequestScheduler implements ExecChainHandler {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeRequestScheduler.class);
+
+  private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
+  private static final String SQL_STATEMENTS_PATH = "/api/v2/statements";
+  private static final Duration BASE_BACKOFF = Duration.ofMillis(200);
+  private static final double LATENCY_SPIKE_FACTOR = 3.0;
+  private static final double LATENCY_SMOOTHING = 0.05;
+
+  private final int maxConcurrency;
+  private final int maxAttempts;
+  private final Duration maxBackoff;
+
+  private double concurrencyLimit;
+  private int inFlight;
+  /**
+   * The moving average of the latency per method and endpoint, see {@link SnowflakeRequestMetrics#endpoint(String)}.
+   */
+  private final Map<String, Double> averageLatencyMillis = new HashMap<>();
+  private final Map<String, HostState> hosts = new HashMap<>();
+
+  private final Counter throttledCounter;
+  private final Counter retriedCounter;
+  private final Counter failedCounter;
+  private final Timer waitTimer;
+
+  public SnowflakeRequestScheduler(int maxConcurrency, int maxAttempts, Duration maxBackoff, MeterRegistry meterRegistry) {
+    this.maxConcurrency = Math.max(1, maxConcurrency);
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.maxBackoff = maxBackoff;
+    this.concurrencyLimit = Math.min(4, this.maxConcurrency);
+    this.throttledCounter = Counter.builder("snowflake.http.throttled")
+        .description("Snowflake REST API responses with status 429 or 503")
+        .register(meterRegistry);
+    this.retriedCounter = Counter.builder("snowflake.http.retries")
+        .description("Retried Snowflake REST API requests")
+        .register(meterRegistry);
+    this.failedCounter = Counter.builder("snowflake.http.retries.exhausted")
+        .description("Snowflake REST API requests that failed after all attempts")
+        .register(meterRegistry);
+    this.waitTimer = Timer.builder("snowflake.http.scheduler.wait")
+        .description("Time requests waited for the concurrency limit or a Retry-After pause")
+        .register(meterRegistry);
+    Gauge.builder("snowflake.http.concurrency.limit", this, SnowflakeRequestScheduler::concurrencyLimit)
+        .description("Current adaptive limit of concurrent Snowflake REST API requests")
+        .register(meterRegistry);
+    Gauge.builder("snowflake.http.concurrency.inflight", this, SnowflakeRequestScheduler::inFlight)
+        .description("Snowflake REST API requests in flight")
+        .register(meterRegistry);
+  }
+
+  @Override
+  public ClassicHttpResponse execute(ClassicHttpRequest request, ExecChain.Scope scope, ExecChain chain)
+      throws IOException, HttpException {
+    var retryable = isRepeatable(request);
+    var host = scope.route.getTargetHost().toHostString();
+    var endpoint = request.getMethod() + " " + SnowflakeRequestMetrics.endpoint(request.getPath());
+    for (int attempt = 1; ; attempt++) {
+      var attemptRequest = attempt == 1 ? request : retryRequest(scope.originalRequest);
+      acquire(host);
+      var start = System.nanoTime();
+      ClassicHttpResponse response;
+      try {
+        response = chain.proceed(attemptRequest, scope);
+      } catch (IOException e) {
+        release(host, endpoint, Outcome.FAILED, System.nanoTime() - start);
+        if (!retryable || !isIdempotent(request) || attempt >= maxAttempts) {
+          throw e;
+        }
+        log.info("Request {} {} failed with {}, retrying (attempt {} of {})", request.getMethod(), request.getPath(), e.toString(),
+            attempt + 1, maxAttempts);
+        retriedCounter.increment();
+        sleep(backoff(attempt));
+        continue;
+      }
+
+      var status = response.getCode();
+      var throttled = status == 429 || status == 503;
+      var outcome = throttled ? Outcome.THROTTLED : Outcome.COMPLETED;
+      var latencyNanos = System.nanoTime() - start;
+      if (throttled) {
+        throttledCounter.increment();
+      }
+      var shouldRetry = throttled || (status >= 500 && isIdempotent(request));
+      if (!shouldRetry) {
+        return releaseOnClose(response, () -> release(host, endpoint, outcome, latencyNanos));
+      }
+      if (!retryable || attempt >= maxAttempts) {
+        failedCounter.increment();
+        return releaseOnClose(response, () -> release(host, endpoint, outcome, latencyNanos));
+      }
+
+      var retryAfter = retryAfter(response);
+      retryAfter.ifPresent(duration -> pauseFor(host, duration));
+      try {
+        EntityUtils.consume(response.getEntity());
+        response.close();
+      } finally {
+        release(host, endpoint, outcome, latencyNanos);
+      }
+      var delay = retryAfter.isPresent() ? retryAfter.get() : backoff(attempt);
+      log.info("Request {} {} returned status {}, retrying in {} ms (attempt {} of {})", request.getMethod(), request.getPath(),
+          status, delay.toMillis(), attempt + 1, maxAttempts);
+      retriedCounter.increment();
+      sleep(delay);
+    }
+  }
+
+  /**
+   * A copy of the request for another attempt. A statement submitted to the SQL API again is marked with {@code retry=true},
+   * as Snowflake only recognizes its request ID then and does not execute the statement twice.
+   */
+  private static ClassicHttpRequest retryRequest(ClassicHttpRequest originalRequest) {
+    var retryRequest = ClassicRequestBuilder.copy(originalRequest).build();
+    var path = retryRequest.getPath();
+    if ("POST".equalsIgnoreCase(retryRequest.getMethod()) && path.startsWith(SQL_STATEMENTS_PATH + "?")
+        && path.contains("requestId=") && !path.contains("retry=true")) {
+      retryRequest.setPath(path + "&retry=true");
+    }
+    return retryRequest;
+  }
+
+  /**
+   * Waits until a request to the host may be sent, i.e. no {@code Retry-After} pause of the host is active, the concurrency
+   * limit is not reached and the host does not exceed its fair share while other hosts are waiting.
+   */
+  private void acquire(String host) throws IOException {
+    var waitStart = System.nanoTime();
+    synchronized (this) {
+      var hostState = hosts.computeIfAbsent(host, key -> new HostState());
+      hostState.waiting++;
+      try {
+        while (true) {
+          var pausedFor = hostState.pausedUntilNanos - System.nanoTime();
+          if (pausedFor > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, pausedFor);
+          } else if (inFlight >= (int) concurrencyLimit || exceedsFairShare(hostState)) {
+            wait();
+          } else {
+            break;
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting to send a Snowflake request", e);
+      } finally {
+        hostState.waiting--;
+      }
+      hostState.inFlight++;
+      inFlight++;
+    }
+    waitTimer.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Whether the host already uses its share of the limit while requests of other hosts are waiting.
+   */
+  private boolean exceedsFairShare(HostState hostState) {
+    if (hosts.size() == 1) {
+      return false;
+    }
+    var activeHosts = 0;
+    var othersWaiting = false;
+    for (var state : hosts.values()) {
+      if (state.inFlight > 0 || state.waiting > 0) {
+        activeHosts++;
+      }
+      if (state != hostState && state.waiting > 0 && state.pausedUntilNanos - System.nanoTime() <= 0) {
+        othersWaiting = true;
+      }
+    }
+    return othersWaiting && hostState.inFlight >= Math.max(1, (int) concurrencyLimit / activeHosts);
+  }
+
+  /**
+   * Keeps the request in flight until its response is closed or its body is read, as Snowflake is still sending the body until
+   * then. The slot is released once, whichever happens first.
+   */
+  private static ClassicHttpResponse releaseOnClose(ClassicHttpResponse response, Runnable release) {
+    var released = new AtomicBoolean();
+    Runnable releaseOnce = () -> {
+      if (released.compareAndSet(false, true)) {
+        release.run();
+      }
+    };
+    var entity = response.getEntity();
+    if (entity == null || !entity.isStreaming()) {
+      releaseOnce.run();
+    } else {
+      response.setEntity(new ReleasingEntity(entity, releaseOnce));
+    }
+    return response;
+  }
+
+  private synchronized void release(String host, String endpoint, Outcome outcome, long latencyNanos) {
+    inFlight--;
+    hosts.get(host).inFlight--;
+    var latencyMillis = latencyNanos / 1_000_000.0;
+    switch (outcome) {
+      case THROTTLED -> concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+      case FAILED -> concurrencyLimit = Math.max(1, concurrencyLimit * 0.9);
+      case COMPLETED -> {
+        var average = averageLatencyMillis.get(endpoint);
+        if (average != null && latencyMillis > average * LATENCY_SPIKE_FACTOR) {
+          concurrencyLimit = Math.max(1, concurrencyLimit * 0.9);
+        } else {
+          concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+        }
+        averageLatencyMillis.put(endpoint, average == null ? latencyMillis : average + LATENCY_SMOOTHING * (latencyMillis - average));
+      }
+    }
+    notifyAll();
+  }
+
+  private synchronized void pauseFor(String host, Duration duration) {
+    var hostState = hosts.get(host);
+    var pausedUntil = System.nanoTime() + duration.toNanos();
+    if (pausedUntil - hostState.pausedUntilNanos > 0) {
+      hostState.pausedUntilNanos = pausedUntil;
+    }
+  }
+
+  /**
+   * Full jitter: a random delay between zero and the exponential backoff for the attempt.
+   */
+  private Duration backoff(int attempt) {
+    var exponential = BASE_BACKOFF.toMillis() << Math.min(attempt - 1, 16);
+    var capped = Math.min(exponential, maxBackoff.toMillis());
+    return Duration.ofMillis(ThreadLocalRandom.current().nextLong(capped + 1));
+  }
+
+  private Optional<Duration> retryAfter(ClassicHttpResponse response) {
+    var header = response.getFirstHeader("Retry-After");
+    if (header == null || header.getValue() == null || header.getValue().isBlank()) {
+      return Optional.empty();
+    }
+    var value = header.getValue().trim();
+    Duration retryAfter;
+    try {
+      retryAfter = Duration.ofSeconds(Long.parseLong(value));
+    } catch (NumberFormatException e) {
+      try {
+        var retryAt = Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value));
+        retryAfter = Duration.between(Instant.now(), retryAt);
+      } catch (DateTimeParseException ex) {
+        log.debug("Ignoring invalid Retry-After header {}", value);
+        return Optional.empty();
+      }
+    }
+    if (retryAfter.isNegative()) {
+      return Optional.of(Duration.ZERO);
+    }
+    return Optional.of(retryAfter.compareTo(maxBackoff) > 0 ? maxBackoff : retryAfter);
+  }
+
+  private static boolean isIdempotent(ClassicHttpRequest request) {
+    return IDEMPOTENT_METHODS.contains(request.getMethod().toUpperCase(Locale.ROOT));
+  }
+
+  private static boolean isRepeatable(ClassicHttpRequest request) {
+    return request.getEntity() == null || request.getEntity().isRepeatable();
+  }
+
+  private static void sleep(Duration duration) throws IOException {
+    try {
+      Thread.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to retry a Snowflake request", e);
+    }
+  }
+
+  private synchronized double concurrencyLimit() {
+    return concurrencyLimit;
+  }
+
+  private synchronized int inFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Requests of a single host, e.g. of one Snowflake account. Guarded by the scheduler's lock.
+   */
+  private static class HostState {
+
+    private int inFlight;
+    private int waiting;
+    private long pausedUntilNanos = System.nanoTime();
+  }
+
+  /**
+   * Runs the release when the body has been read, written or the entity is closed.
+   */
+  private static class ReleasingEntity extends HttpEntityWrapper {
+
+    private final Runnable release;
+
+    ReleasingEntity(HttpEntity entity, Runnable release) {
+      super(entity);
+      this.release = release;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      var content = super.getContent();
+      if (content == null) {
+        return null;
+      }
+      return new FilterInputStream(content) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            release.run();
+          }
+        }
+      };
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+      try {
+        super.writeTo(outStream);
+      } finally {
+        release.run();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        release.run();
+      }
+    }
+  }
+
+  private enum Outcome {
+    COMPLETED,
+    THROTTLED,
+    FAILED
+  }
+
+}
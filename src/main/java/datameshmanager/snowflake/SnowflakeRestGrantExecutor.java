@@ -0,0 +1,145 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.snowflake.SnowflakeGrant.CreateRole;
+import datameshmanager.snowflake.SnowflakeGrant.DatabaseSchemasUsage;
+import datameshmanager.snowflake.SnowflakeGrant.DropRole;
+import datameshmanager.snowflake.SnowflakeGrant.RevokeRoleFromRole;
+import datameshmanager.snowflake.SnowflakeGrant.RevokeRoleFromUser;
+import datameshmanager.snowflake.SnowflakeGrant.RoleToRole;
+import datameshmanager.snowflake.SnowflakeGrant.RoleToUser;
+import datameshmanager.snowflake.SnowflakeGrant.SchemaObjectsSelect;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import snowflake.client.model.role.ContainingScope;
+import snowflake.client.model.role.Grant;
+import snowflake.client.model.role.Securable;
+
+/**
+ * Applies the grants of an access through the Snowflake REST API.
+ * <p>
+ * The grants are applied stage by stage, and the grants of one stage are applied concurrently, with at most
+ * {@code parallelism} requests at a time. If a grant fails, the grants of the later stages are skipped, as they usually depend
+ * on it.
+ */
+public class SnowflakeRestGrantExecutor implements SnowflakeGrantExecutor {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeRestGrantExecutor.class);
+
+  private static final int DEFAULT_PARALLELISM = 4;
+
+  private final SnowflakeApis snowflakeApis;
+  private final SnowflakeRoleCatalog roleCatalog;
+  private final ExecutorService executor;
+
+  public SnowflakeRestGrantExecutor(SnowflakeApis snowflakeApis, SnowflakeRoleCatalog roleCatalog, Integer parallelism) {
+    this.snowflakeApis = snowflakeApis;
+    this.roleCatalog = roleCatalog;
+    var threadFactory = new CustomizableThreadFactory("snowflake-grants-");
+    threadFactory.setDaemon(true);
+    this.executor = Executors.newFixedThreadPool(parallelism != null && parallelism > 0 ? parallelism : DEFAULT_PARALLELISM,
+        threadFactory);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public List<GrantResult> execute(Collection<SnowflakeGrant> grants) {
+    var stages = grants.stream()
+        .distinct()
+        .collect(Collectors.groupingBy(SnowflakeGrant::stage, TreeMap::new, Collectors.toList()));
+
+    var results = new ArrayList<GrantResult>(grants.size());
+    var failed = false;
+    for (var stage : stages.values()) {
+      if (failed) {
+        stage.forEach(grant -> results.add(GrantResult.skipped(grant)));
+        continue;
+      }
+      var stageResults = stage.stream()
+          .map(grant -> CompletableFuture.supplyAsync(() -> apply(grant), executor))
+          .toList()
+          .stream()
+          .map(CompletableFuture::join)
+          .toList();
+      results.addAll(stageResults);
+      failed = stageResults.stream().anyMatch(GrantResult::failed);
+    }
+    return results;
+  }
+
+  private GrantResult apply(SnowflakeGrant grant) {
+    try {
+      log.info("Applying {}", grant.description());
+      if (grant instanceof CreateRole createRole) {
+        roleCatalog.createRole(createRole.roleName(), createRole.comment());
+      } else if (grant instanceof RoleToRole roleToRole) {
+        snowflakeApis.roles().grantPrivileges(
+            roleToRole.parentRoleName(),
+            new Grant()
+                .securable(new Securable().name(roleToRole.roleName()))
+                .securableType("ROLE")
+                .grantOption(false)
+                .addPrivilegesItem("USAGE"));
+      } else if (grant instanceof RoleToUser roleToUser) {
+        snowflakeApis.users().grant(
+            roleToUser.userName(),
+            new snowflake.client.model.user.Grant()
+                .securableType("ROLE")
+                .securable(new snowflake.client.model.user.Securable().name(roleToUser.roleName()))
+                .addPrivilegesItem("USAGE"));
+      } else if (grant instanceof DatabaseSchemasUsage databaseSchemasUsage) {
+        snowflakeApis.roles().grantPrivileges(
+            databaseSchemasUsage.roleName(),
+            new Grant()
+                .securableType("SCHEMA")
+                .containingScope(new ContainingScope().database(databaseSchemasUsage.databaseName()))
+                .addPrivilegesItem("USAGE"));
+      } else if (grant instanceof SchemaObjectsSelect schemaObjectsSelect) {
+        var roleApi = snowflakeApis.roles();
+        var objectsGrant = new Grant()
+            .securableType(schemaObjectsSelect.securableType())
+            .containingScope(new ContainingScope().database(schemaObjectsSelect.databaseName()).schema(schemaObjectsSelect.schemaName()))
+            .addPrivilegesItem("SELECT");
+        if (schemaObjectsSelect.future()) {
+          roleApi.grantFuturePrivileges(schemaObjectsSelect.roleName(), objectsGrant);
+        } else {
+          roleApi.grantPrivileges(schemaObjectsSelect.roleName(), objectsGrant);
+        }
+      } else if (grant instanceof RevokeRoleFromRole revokeRoleFromRole) {
+        snowflakeApis.roles().revokeGrants(
+            revokeRoleFromRole.parentRoleName(),
+            new Grant()
+                .securable(new Securable().name(revokeRoleFromRole.roleName()))
+                .securableType("ROLE")
+                .addPrivilegesItem("USAGE"),
+            "restrict");
+      } else if (grant instanceof RevokeRoleFromUser revokeRoleFromUser) {
+        snowflakeApis.users().revokeGrants(
+            revokeRoleFromUser.userName(),
+            new snowflake.client.model.user.Grant()
+                .securableType("ROLE")
+                .securable(new snowflake.client.model.user.Securable().name(revokeRoleFromUser.roleName()))
+                .addPrivilegesItem("USAGE"));
+      } else if (grant instanceof DropRole dropRole) {
+        roleCatalog.deleteRole(dropRole.roleName());
+      }
+      return GrantResult.succeeded(grant);
+    } catch (RuntimeException e) {
+      log.warn("Failed to {}", grant.description(), e);
+      return GrantResult.failed(grant, e);
+    }
+  }
+
+}
@@ -0,0 +1,157 @@
+package datameshmanager.snowflake;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import snowflake.client.api.RoleApi;
+import snowflake.client.model.role.Role;
+
+/**
+ * Looks up and manages Snowflake roles, caching which roles exist and which don't.
+ * <p>
+ * The first lookup of a role with one of the managed prefixes ({@code access_}, {@code team_}, {@code dataproduct_}) loads all
+ * roles with that prefix at once, other roles are looked up by their name. Roles created or deleted through this catalog
+ * update the cache immediately. Missing roles are cached for a shorter time than existing ones. This class is thread-safe.
+ */
+public class SnowflakeRoleCatalog {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeRoleCatalog.class);
+
+  static final List<String> MANAGED_ROLE_PREFIXES = List.of("access_", "team_", "dataproduct_");
+
+  private static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+  private static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofMinutes(1);
+
+  private final RoleApi roleApi;
+  private final Duration ttl;
+  private final Duration negativeTtl;
+  private final Clock clock;
+
+  private final Map<String, CachedRole> roles = new ConcurrentHashMap<>();
+  private final Map<String, Instant> prefixesLoadedAt = new ConcurrentHashMap<>();
+
+  public SnowflakeRoleCatalog(SnowflakeApis snowflakeApis, Duration ttl) {
+    this(snowflakeApis.roles(), ttl != null ? ttl : DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, Clock.systemUTC());
+  }
+
+  SnowflakeRoleCatalog(RoleApi roleApi, Duration ttl, Duration negativeTtl, Clock clock) {
+    this.roleApi = roleApi;
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl.compareTo(ttl) < 0 ? negativeTtl : ttl;
+    this.clock = clock;
+  }
+
+  public Optional<Role> findRole(String roleName) {
+    var key = key(roleName);
+    var cachedRole = roles.get(key);
+    if (cachedRole != null && !isExpired(cachedRole)) {
+      return cachedRole.role();
+    }
+
+    var prefix = managedPrefix(roleName);
+    if (prefix.isPresent() && loadPrefix(prefix.get())) {
+      cachedRole = roles.get(key);
+      if (cachedRole != null && !isExpired(cachedRole)) {
+        return cachedRole.role();
+      }
+      // the prefix was loaded just now, so the role does not exist
+      return cache(key, Optional.empty());
+    }
+
+    log.debug("Looking up role {}", roleName);
+    // LIKE is case-insensitive and "_" matches any character, so filter for the exact name
+    var role = roleApi.listRoles(roleName, null, null, null).stream()
+        .filter(candidate -> candidate.getName().equalsIgnoreCase(roleName))
+        .findFirst();
+    return cache(key, role);
+  }
+
+  public Role createRole(String roleName, String comment) {
+    var role = findRole(roleName);
+    if (role.isPresent()) {
+      log.info("Role {} already exists", roleName);
+      return role.get();
+    }
+    log.info("Creating role {}", roleName);
+    var newRole = new Role().name(roleName).comment(comment);
+    roleApi.createRole(newRole, "ifNotExists");
+    log.info("Created role {}", roleName);
+    cache(key(roleName), Optional.of(newRole));
+    return newRole;
+  }
+
+  /**
+   * Records a role that was created outside of this catalog, e.g. through the SQL API.
+   */
+  public void roleCreated(String roleName, String comment) {
+    cache(key(roleName), Optional.of(new Role().name(roleName).comment(comment)));
+  }
+
+  /**
+   * Records a role that was dropped outside of this catalog, e.g. through the SQL API.
+   */
+  public void roleDeleted(String roleName) {
+    cache(key(roleName), Optional.empty());
+  }
+
+  public void deleteRole(String roleName) {
+    roleApi.deleteRole(roleName, true);
+    cache(key(roleName), Optional.empty());
+  }
+
+  /**
+   * Loads all roles with the prefix, unless they were loaded within the TTL.
+   *
+   * @return whether the roles were loaded by this call
+   */
+  private synchronized boolean loadPrefix(String prefix) {
+    var loadedAt = prefixesLoadedAt.get(prefix);
+    if (loadedAt != null && clock.instant().isBefore(loadedAt.plus(ttl))) {
+      return false;
+    }
+    log.info("Loading roles with prefix {}", prefix);
+    var prefixedRoles = roleApi.listRoles(prefix + "%", null, null, null);
+    for (var role : prefixedRoles) {
+      if (role.getName().toLowerCase(Locale.ROOT).startsWith(prefix)) {
+        cache(key(role.getName()), Optional.of(role));
+      }
+    }
+    prefixesLoadedAt.put(prefix, clock.instant());
+    log.info("Loaded {} roles with prefix {}", prefixedRoles.size(), prefix);
+    return true;
+  }
+
+  private Optional<Role> cache(String key, Optional<Role> role) {
+    roles.put(key, new CachedRole(role, clock.instant()));
+    return role;
+  }
+
+  private boolean isExpired(CachedRole cachedRole) {
+    var cachedFor = cachedRole.role().isPresent() ? ttl : negativeTtl;
+    return !clock.instant().isBefore(cachedRole.cachedAt().plus(cachedFor));
+  }
+
+  private static Optional<String> managedPrefix(String roleName) {
+    var lowerCaseRoleName = roleName.toLowerCase(Locale.ROOT);
+    return MANAGED_ROLE_PREFIXES.stream().filter(lowerCaseRoleName::startsWith).findFirst();
+  }
+
+  /**
+   * Unquoted Snowflake identifiers are case-insensitive.
+   */
+  private static String key(String roleName) {
+    return roleName.toUpperCase(Locale.ROOT);
+  }
+
+  private record CachedRole(Optional<Role> role, Instant cachedAt) {
+
+  }
+
+}
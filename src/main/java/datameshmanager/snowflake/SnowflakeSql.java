@@ -0,0 +1,41 @@
+package datameshmanager.snowflake;
+
+import java.util.regex.Pattern;
+
+/**
+ * Helpers to render identifiers and literals in SQL statements.
+ */
+final class SnowflakeSql {
+
+  private static final Pattern UNQUOTED_IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_$]*");
+
+  private SnowflakeSql() {
+  }
+
+  /**
+   * Renders an identifier the way the REST API treats names: as-is when it is a valid unquoted identifier (and therefore
+   * case-insensitive), double-quoted otherwise.
+   */
+  static String identifier(String name) {
+    if (UNQUOTED_IDENTIFIER.matcher(name).matches()) {
+      return name;
+    }
+    return "\"" + name.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Renders an identifier as returned by Snowflake, e.g. in a listing, which always needs to be double-quoted to match exactly.
+   */
+  static String quotedIdentifier(String name) {
+    return "\"" + name.replace("\"", "\"\"") + "\"";
+  }
+
+  static String identifier(String databaseName, String schemaName) {
+    return identifier(databaseName) + "." + identifier(schemaName);
+  }
+
+  static String literal(String value) {
+    return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+  }
+
+}
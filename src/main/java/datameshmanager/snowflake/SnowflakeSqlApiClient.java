@@ -0,0 +1,204 @@
+package datameshmanager.snowflake;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimal client for the Snowflake SQL API ({@code /api/v2/statements}).
+ * <p>
+ * Statements are submitted asynchronously, and the client polls for their completion with an increasing interval. Several
+ * statements can be submitted as one multi-statement request, which Snowflake executes in order.
+ * <p>
+ * Requests are sent with the shared HTTP client of the REST API, so they use its connection pool and are throttled and retried
+ * by the {@link SnowflakeRequestScheduler}. A statement submitted again after a throttled attempt keeps its request ID and is
+ * marked with {@code retry=true} by the scheduler, so Snowflake executes it only once.
+ */
+public class SnowflakeSqlApiClient {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeSqlApiClient.class);
+
+  private static final Duration MIN_POLL_INTERVAL = Duration.ofMillis(100);
+  private static final Duration MAX_POLL_INTERVAL = Duration.ofSeconds(2);
+  private static final Duration STATEMENT_TIMEOUT = Duration.ofMinutes(10);
+
+  private final URI baseUri;
+  private final Supplier<String> bearerTokenSupplier;
+  private final String warehouse;
+  private final CloseableHttpClient httpClient;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  public SnowflakeSqlApiClient(String baseUrl, Supplier<String> bearerTokenSupplier, String warehouse,
+      CloseableHttpClient httpClient) {
+    this.baseUri = URI.create(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+    this.bearerTokenSupplier = bearerTokenSupplier;
+    this.warehouse = warehouse;
+    this.httpClient = httpClient;
+  }
+
+  public Result execute(String statement) {
+    return execute(List.of(statement));
+  }
+
+  /**
+   * Executes the statements in order. For more than one statement, the result is the summary of the multi-statement request.
+   */
+  public Result execute(List<String> statements) {
+    var body = objectMapper.createObjectNode();
+    body.put("statement", String.join(";\n", statements));
+    body.put("timeout", STATEMENT_TIMEOUT.toSeconds());
+    if (warehouse != null && !warehouse.isBlank()) {
+      body.put("warehouse", warehouse);
+    }
+    ObjectNode parameters = body.putObject("parameters");
+    parameters.put("MULTI_STATEMENT_COUNT", String.valueOf(statements.size()));
+
+    var requestId = UUID.randomUUID();
+    log.debug("Submitting {} statements, request {}", statements.size(), requestId);
+    var submit = request(new HttpPost(baseUri.resolve("api/v2/statements?async=true&requestId=" + requestId)));
+    submit.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+    var response = send(submit);
+    var statementHandle = response.json().path("statementHandle").asText();
+
+    var pollInterval = MIN_POLL_INTERVAL;
+    while (response.statusCode() == 202) {
+      sleep(pollInterval);
+      pollInterval = pollInterval.multipliedBy(2);
+      if (pollInterval.compareTo(MAX_POLL_INTERVAL) > 0) {
+        pollInterval = MAX_POLL_INTERVAL;
+      }
+      response = send(request(new HttpGet(baseUri.resolve("api/v2/statements/" + encode(statementHandle)))));
+    }
+    return toResult(statementHandle, response.json());
+  }
+
+  /**
+   * Fetches the rows of a result partition. The rows of the first partition are already part of the {@link Result}.
+   */
+  public List<List<String>> fetchPartition(Result result, int partition) {
+    if (partition == 0) {
+      return result.data();
+    }
+    var response = send(request(new HttpGet(baseUri.resolve(
+        "api/v2/statements/" + encode(result.statementHandle()) + "?partition=" + partition))));
+    return toRows(response.json().path("data"));
+  }
+
+  private <T extends HttpUriRequestBase> T request(T request) {
+    request.setHeader("Authorization", "Bearer " + bearerTokenSupplier.get());
+    request.setHeader("X-Snowflake-Authorization-Token-Type", "KEYPAIR_JWT");
+    request.setHeader("Accept", "application/json");
+    return request;
+  }
+
+  /**
+   * Sends the request. Compressed responses are decompressed by the HTTP client.
+   */
+  private JsonResponse send(HttpUriRequestBase request) {
+    var path = request.getRequestUri();
+    try {
+      return httpClient.execute(request, response -> {
+        var entity = response.getEntity();
+        JsonNode json = null;
+        if (entity != null) {
+          try (InputStream body = entity.getContent()) {
+            json = objectMapper.readTree(body);
+          }
+        }
+        if (json == null) {
+          json = MissingNode.getInstance();
+        }
+        if (response.getCode() != 200 && response.getCode() != 202) {
+          throw new RuntimeException("Snowflake SQL API request %s failed with status %d: %s"
+              .formatted(path, response.getCode(), json.path("message").asText()));
+        }
+        return new JsonResponse(response.getCode(), json);
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException("Snowflake SQL API request %s failed".formatted(path), e);
+    }
+  }
+
+  private static Result toResult(String statementHandle, JsonNode json) {
+    var metaData = json.path("resultSetMetaData");
+    var columnNames = new ArrayList<String>();
+    for (var rowType : metaData.path("rowType")) {
+      columnNames.add(rowType.path("name").asText());
+    }
+    var partitionCount = Math.max(1, metaData.path("partitionInfo").size());
+    var statementHandles = new ArrayList<String>();
+    for (var handle : json.path("statementHandles")) {
+      statementHandles.add(handle.asText());
+    }
+    return new Result(statementHandle, columnNames, partitionCount, toRows(json.path("data")), statementHandles);
+  }
+
+  private static List<List<String>> toRows(JsonNode data) {
+    var rows = new ArrayList<List<String>>(data.size());
+    for (var row : data) {
+      var values = new ArrayList<String>(row.size());
+      for (var value : row) {
+        values.add(value.isNull() ? null : value.asText());
+      }
+      rows.add(values);
+    }
+    return rows;
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private static void sleep(Duration duration) {
+    try {
+      Thread.sleep(duration.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the Snowflake SQL API", e);
+    }
+  }
+
+  /**
+   * The result of a statement.
+   *
+   * @param data the rows of the first partition, values are returned as strings by the SQL API
+   * @param statementHandles the handles of the individual statements of a multi-statement request
+   */
+  public record Result(String statementHandle, List<String> columnNames, int partitionCount, List<List<String>> data,
+                       List<String> statementHandles) {
+
+    public int columnIndex(String columnName) {
+      for (int i = 0; i < columnNames.size(); i++) {
+        if (columnNames.get(i).equalsIgnoreCase(columnName)) {
+          return i;
+        }
+      }
+      throw new IllegalArgumentException("Column %s is not part of the result".formatted(columnName));
+    }
+  }
+
+  private record JsonResponse(int statusCode, JsonNode json) {
+
+  }
+
+}
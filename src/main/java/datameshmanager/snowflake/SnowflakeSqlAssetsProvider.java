@@ -0,0 +1,330 @@
+package datameshmanager.snowflake;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import snowflake.client.model.database.Database;
+import snowflake.client.model.schema.SchemaInfo;
+import snowflake.client.model.table.Table;
+import snowflake.client.model.view.View;
+
+/**
+ * Assets provider that reads the metadata of a whole database with two queries against its {@code INFORMATION_SCHEMA} through
+ * the Snowflake SQL API, instead of listing every schema through the REST API.
+ * <p>
+ * Rows are converted into the same model objects the REST API returns, so the assets have the same IDs and properties as with
+ * {@link SnowflakeAssetsProvider}. Result partitions are fetched one at a time and each table is passed to the callback as soon
+ * as all of its columns are read.
+ * <p>
+ * {@code INFORMATION_SCHEMA} only contains existing objects, so dropped tables and views are not reported as deleted. Enable
+ * incremental synchronization to delete assets that are missing from a complete run.
+ */
+public class SnowflakeSqlAssetsProvider extends SnowflakeAssetsProvider {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeSqlAssetsProvider.class);
+
+  private static final String SCHEMATA_QUERY = """
+      SELECT CATALOG_NAME, SCHEMA_NAME, SCHEMA_OWNER, IS_TRANSIENT, CREATED::TIMESTAMP_TZ AS CREATED, COMMENT
+      FROM %s.INFORMATION_SCHEMA.SCHEMATA
+      ORDER BY SCHEMA_NAME""";
+
+  private static final String TABLES_QUERY = """
+      SELECT t.TABLE_CATALOG, t.TABLE_SCHEMA, t.TABLE_NAME, t.TABLE_OWNER, t.TABLE_TYPE, t.IS_TRANSIENT,
+             t.CREATED::TIMESTAMP_TZ AS CREATED, t.COMMENT,
+             v.IS_SECURE,
+             c.COLUMN_NAME, c.DATA_TYPE, c.CHARACTER_MAXIMUM_LENGTH, c.NUMERIC_PRECISION, c.NUMERIC_SCALE, c.DATETIME_PRECISION,
+             c.COMMENT AS COLUMN_COMMENT
+      FROM %1$s.INFORMATION_SCHEMA.TABLES t
+      LEFT JOIN %1$s.INFORMATION_SCHEMA.VIEWS v ON v.TABLE_SCHEMA = t.TABLE_SCHEMA AND v.TABLE_NAME = t.TABLE_NAME
+      LEFT JOIN %1$s.INFORMATION_SCHEMA.COLUMNS c ON c.TABLE_SCHEMA = t.TABLE_SCHEMA AND c.TABLE_NAME = t.TABLE_NAME
+      WHERE t.TABLE_SCHEMA <> 'INFORMATION_SCHEMA'%2$s
+      ORDER BY t.TABLE_SCHEMA, t.TABLE_NAME, c.ORDINAL_POSITION""";
+
+  private final SnowflakeSqlApiClient sqlApiClient;
+  /**
+   * The object mapper of the REST API client, so that the rows are converted exactly like the responses of the REST engine.
+   */
+  private final ObjectMapper objectMapper;
+
+  public SnowflakeSqlAssetsProvider(SnowflakeProperties snowflakeProperties, SnowflakeApis snowflakeApis,
+      SnowflakeSqlApiClient sqlApiClient, SnowflakeAssetShards shards, MeterRegistry meterRegistry) {
+    super(snowflakeProperties, snowflakeApis, shards, meterRegistry);
+    this.sqlApiClient = sqlApiClient;
+    this.objectMapper = snowflakeApis.databases().getApiClient().getObjectMapper().copy()
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+  }
+
+  /**
+   * Synchronizes up to {@code concurrency} databases at the same time, each with its own queries.
+   */
+  @Override
+  protected void crawl(AssetCallback assetCallback, int concurrency) {
+    var databases = listDatabases();
+    if (concurrency <= 1) {
+      for (var database : databases) {
+        synchronizeDatabase(database, assetCallback);
+      }
+      return;
+    }
+
+    log.info("Synchronizing {} databases with concurrency {}", databases.size(), concurrency);
+    var executor = Executors.newFixedThreadPool(concurrency, new CustomizableThreadFactory("snowflake-assets-"));
+    try {
+      var databaseFutures = databases.stream()
+          .map(database -> CompletableFuture.runAsync(() -> synchronizeDatabase(database, assetCallback), executor))
+          .toArray(CompletableFuture[]::new);
+      CompletableFuture.allOf(databaseFutures).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw e;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void synchronizeDatabase(Database database, AssetCallback assetCallback) {
+    databaseTimer(database).record(() -> synchronizeDatabaseObjects(database, assetCallback));
+    checkpoint().databaseCompleted(database.getName());
+  }
+
+  private void synchronizeDatabaseObjects(Database database, AssetCallback assetCallback) {
+    log.info("Synchronizing database {}", database.getName());
+    var databaseIdentifier = SnowflakeSql.quotedIdentifier(database.getName());
+
+    var schemata = sqlApiClient.execute(SCHEMATA_QUERY.formatted(databaseIdentifier));
+    var includedSchemas = new HashSet<String>();
+    var excludedSchemas = new AtomicBoolean();
+    forEachRow(schemata, row -> {
+      var schema = toSchema(row);
+      if (includeSchema(schema)) {
+        includedSchemas.add(schema.getName());
+        schemaToAsset(schema).ifPresent(assetCallback::onAssetUpdated);
+      } else if (!"INFORMATION_SCHEMA".equals(schema.getName())) {
+        excludedSchemas.set(true);
+      }
+    });
+    if (includedSchemas.isEmpty()) {
+      return;
+    }
+
+    // the columns of excluded schemas are not read at all
+    var schemaCondition = "";
+    if (excludedSchemas.get()) {
+      schemaCondition = includedSchemas.stream()
+          .sorted()
+          .map(SnowflakeSql::literal)
+          .collect(Collectors.joining(", ", " AND t.TABLE_SCHEMA IN (", ")"));
+    }
+    var tables = sqlApiClient.execute(TABLES_QUERY.formatted(databaseIdentifier, schemaCondition));
+    var objectCollector = new ObjectCollector(assetCallback, includedSchemas);
+    forEachRow(tables, objectCollector::add);
+    objectCollector.flush();
+  }
+
+  /**
+   * Reads the rows of all result partitions, fetching the next partition only when the previous one is processed.
+   */
+  private void forEachRow(SnowflakeSqlApiClient.Result result, Consumer<Row> action) {
+    var columnIndexes = new HashMap<String, Integer>();
+    for (int i = 0; i < result.columnNames().size(); i++) {
+      columnIndexes.put(result.columnNames().get(i).toUpperCase(Locale.ROOT), i);
+    }
+    for (int partition = 0; partition < result.partitionCount(); partition++) {
+      for (var values : sqlApiClient.fetchPartition(result, partition)) {
+        action.accept(new Row(columnIndexes, values));
+      }
+    }
+  }
+
+  private SchemaInfo toSchema(Row row) {
+    var json = objectMapper.createObjectNode()
+        .put("name", row.get("SCHEMA_NAME"))
+        .put("database_name", row.get("CATALOG_NAME"))
+        .put("kind", row.isYes("IS_TRANSIENT") ? "TRANSIENT" : "PERMANENT")
+        .put("comment", row.get("COMMENT"))
+        .put("created_on", toTimestamp(row.get("CREATED")))
+        .put("owner", row.get("SCHEMA_OWNER"));
+    return convert(json, SchemaInfo.class);
+  }
+
+  private ObjectNode toTableOrView(Row row) {
+    var tableType = row.get("TABLE_TYPE");
+    var json = objectMapper.createObjectNode()
+        .put("name", row.get("TABLE_NAME"))
+        .put("database_name", row.get("TABLE_CATALOG"))
+        .put("schema_name", row.get("TABLE_SCHEMA"))
+        .put("comment", row.get("COMMENT"))
+        .put("created_on", toTimestamp(row.get("CREATED")))
+        .put("owner", row.get("TABLE_OWNER"));
+    if (isView(tableType)) {
+      json.put("kind", "PERMANENT")
+          .put("secure", row.isYes("IS_SECURE"));
+    } else {
+      var kind = Objects.equals(tableType, "TEMPORARY TABLE") ? "TEMPORARY" : row.isYes("IS_TRANSIENT") ? "TRANSIENT" : "PERMANENT";
+      json.put("kind", kind)
+          .put("table_type", switch (tableType != null ? tableType : "") {
+            case "EXTERNAL TABLE" -> "EXTERNAL";
+            case "EVENT TABLE" -> "EVENT";
+            default -> "NORMAL";
+          });
+    }
+    json.putArray("columns");
+    return json;
+  }
+
+  private void addColumn(ObjectNode tableOrView, Row row) {
+    if (row.get("COLUMN_NAME") == null) {
+      return;
+    }
+    tableOrView.withArray("columns").addObject()
+        .put("name", row.get("COLUMN_NAME"))
+        .put("datatype", toDatatype(row))
+        .put("comment", row.get("COLUMN_COMMENT"));
+  }
+
+  /**
+   * Renders the column type like {@code SHOW COLUMNS} and the REST API do, e.g. {@code VARCHAR(16777216)} instead of
+   * {@code TEXT}.
+   */
+  private static String toDatatype(Row row) {
+    var dataType = row.get("DATA_TYPE");
+    if (dataType == null) {
+      return null;
+    }
+    return switch (dataType) {
+      case "TEXT" -> "VARCHAR(%s)".formatted(row.get("CHARACTER_MAXIMUM_LENGTH"));
+      case "BINARY" -> "BINARY(%s)".formatted(row.get("CHARACTER_MAXIMUM_LENGTH"));
+      case "NUMBER" -> "NUMBER(%s,%s)".formatted(row.get("NUMERIC_PRECISION"), row.get("NUMERIC_SCALE"));
+      case "TIME", "TIMESTAMP_LTZ", "TIMESTAMP_NTZ", "TIMESTAMP_TZ" -> "%s(%s)".formatted(dataType, row.get("DATETIME_PRECISION"));
+      default -> dataType;
+    };
+  }
+
+  /**
+   * The SQL API returns timestamps as seconds since the epoch, with fractional seconds and, for {@code TIMESTAMP_TZ}, the time
+   * zone offset in minutes plus 1440 after a space. The queries cast the creation times to {@code TIMESTAMP_TZ}, so they keep
+   * the offset of the session time zone, which the REST API uses for {@code created_on} as well. Otherwise the same object
+   * would get a different fingerprint with each engine.
+   */
+  private static String toTimestamp(String value) {
+    if (value == null || value.isBlank()) {
+      return null;
+    }
+    var parts = value.split(" ");
+    var epochSeconds = new BigDecimal(parts[0]);
+    var instant = Instant.ofEpochSecond(epochSeconds.longValue(),
+        epochSeconds.remainder(BigDecimal.ONE).movePointRight(9).longValue());
+    var offset = parts.length > 1 ? ZoneOffset.ofTotalSeconds((Integer.parseInt(parts[1]) - 1440) * 60) : ZoneOffset.UTC;
+    return instant.atOffset(offset).toString();
+  }
+
+  private static boolean isView(String tableType) {
+    return Objects.equals(tableType, "VIEW") || Objects.equals(tableType, "MATERIALIZED VIEW");
+  }
+
+  private <T> T convert(ObjectNode json, Class<T> type) {
+    try {
+      return objectMapper.treeToValue(json, type);
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException("Failed to convert %s to %s".formatted(json.path("name").asText(), type.getSimpleName()), e);
+    }
+  }
+
+  /**
+   * Assembles tables and views from the rows of the tables query, which contains one row per column, ordered by table.
+   */
+  private class ObjectCollector {
+
+    private final AssetCallback assetCallback;
+    private final Set<String> includedSchemas;
+    private String currentSchemaName;
+    private String currentName;
+    private boolean currentIsView;
+    private ObjectNode current;
+
+    ObjectCollector(AssetCallback assetCallback, Set<String> includedSchemas) {
+      this.assetCallback = assetCallback;
+      this.includedSchemas = includedSchemas;
+    }
+
+    void add(Row row) {
+      if (!includedSchemas.contains(row.get("TABLE_SCHEMA"))) {
+        return;
+      }
+      var schemaName = row.get("TABLE_SCHEMA");
+      var name = row.get("TABLE_NAME");
+      if (!name.equals(currentName) || !schemaName.equals(currentSchemaName)) {
+        flush();
+        currentSchemaName = schemaName;
+        currentName = name;
+        currentIsView = isView(row.get("TABLE_TYPE"));
+        current = toTableOrView(row);
+      }
+      addColumn(current, row);
+    }
+
+    void flush() {
+      if (current == null) {
+        return;
+      }
+      if (currentIsView) {
+        var view = convert(current, View.class);
+        log.debug("Synchronizing view {}.{}", view.getSchemaName(), view.getName());
+        viewToAsset(view).ifPresent(assetCallback::onAssetUpdated);
+      } else {
+        var table = convert(current, Table.class);
+        log.debug("Synchronizing table {}.{}", table.getSchemaName(), table.getName());
+        tableToAsset(table).ifPresent(assetCallback::onAssetUpdated);
+      }
+      current = null;
+      currentSchemaName = null;
+      currentName = null;
+    }
+  }
+
+  /**
+   * A row of a result. The column indexes are resolved once per result and keyed by upper case name, as the column names in
+   * the queries are.
+   */
+  private record Row(Map<String, Integer> columnIndexes, List<String> values) {
+
+    String get(String columnName) {
+      var index = columnIndexes.get(columnName);
+      if (index == null) {
+        index = columnIndexes.get(columnName.toUpperCase(Locale.ROOT));
+      }
+      if (index == null) {
+        throw new IllegalArgumentException("Column %s is not part of the result".formatted(columnName));
+      }
+      return values.get(index);
+    }
+
+    boolean isYes(String columnName) {
+      return "YES".equalsIgnoreCase(get(columnName));
+    }
+  }
+
+}
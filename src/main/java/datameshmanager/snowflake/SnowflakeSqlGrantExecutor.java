@@ -0,0 +1,60 @@
+package datameshmanager.snowflake;
+
+import datameshmanager.snowflake.SnowflakeGrant.CreateRole;
+import datameshmanager.snowflake.SnowflakeGrant.DropRole;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the grants of an access as one multi-statement request through the Snowflake SQL API, which replaces a request per
+ * grant with a submit request and a few status polls.
+ * <p>
+ * Snowflake executes the statements in the order of their stage and stops at the first failing statement. As it is not
+ * reported which statement failed, all grants are reported as failed in that case. The statements are idempotent, so the event
+ * can safely be processed again.
+ */
+public class SnowflakeSqlGrantExecutor implements SnowflakeGrantExecutor {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeSqlGrantExecutor.class);
+
+  private final SnowflakeSqlApiClient sqlApiClient;
+  private final SnowflakeRoleCatalog roleCatalog;
+
+  public SnowflakeSqlGrantExecutor(SnowflakeSqlApiClient sqlApiClient, SnowflakeRoleCatalog roleCatalog) {
+    this.sqlApiClient = sqlApiClient;
+    this.roleCatalog = roleCatalog;
+  }
+
+  @Override
+  public List<GrantResult> execute(Collection<SnowflakeGrant> grants) {
+    var orderedGrants = grants.stream()
+        .distinct()
+        .sorted(Comparator.comparingInt(SnowflakeGrant::stage))
+        .toList();
+    if (orderedGrants.isEmpty()) {
+      return List.of();
+    }
+
+    var statements = orderedGrants.stream().map(SnowflakeGrant::toSql).toList();
+    try {
+      log.info("Applying {} grants in one SQL API request", statements.size());
+      sqlApiClient.execute(statements);
+    } catch (RuntimeException e) {
+      log.warn("Failed to apply {} grants", statements.size(), e);
+      return orderedGrants.stream().map(grant -> GrantResult.failed(grant, e)).toList();
+    }
+
+    for (var grant : orderedGrants) {
+      if (grant instanceof CreateRole createRole) {
+        roleCatalog.roleCreated(createRole.roleName(), createRole.comment());
+      } else if (grant instanceof DropRole dropRole) {
+        roleCatalog.roleDeleted(dropRole.roleName());
+      }
+    }
+    return orderedGrants.stream().map(GrantResult::succeeded).toList();
+  }
+
+}
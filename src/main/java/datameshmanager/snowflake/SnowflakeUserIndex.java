@@ -0,0 +1,101 @@
+package datameshmanager.snowflake;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import snowflake.client.api.UserApi;
+import snowflake.client.model.user.User;
+
+/**
+ * Index of Snowflake user names by lowercase email address.
+ * <p>
+ * The index is loaded in bulk and reloaded when it is older than the TTL. A lookup that misses an email address reloads the
+ * index as well, at most once per {@code missReloadInterval}, so users created in Snowflake after the last load are found
+ * without downloading the user list for every unknown address. This class is thread-safe.
+ */
+public class SnowflakeUserIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(SnowflakeUserIndex.class);
+
+  private static final Duration DEFAULT_TTL = Duration.ofMinutes(15);
+  private static final Duration DEFAULT_MISS_RELOAD_INTERVAL = Duration.ofMinutes(1);
+
+  private final UserApi userApi;
+  private final Duration ttl;
+  private final Duration missReloadInterval;
+  private final Clock clock;
+
+  private volatile Map<String, List<String>> userNamesByEmail = Map.of();
+  private volatile Instant loadedAt = Instant.MIN;
+
+  public SnowflakeUserIndex(SnowflakeApis snowflakeApis, Duration ttl) {
+    this(snowflakeApis.users(), ttl != null ? ttl : DEFAULT_TTL, DEFAULT_MISS_RELOAD_INTERVAL, Clock.systemUTC());
+  }
+
+  SnowflakeUserIndex(UserApi userApi, Duration ttl, Duration missReloadInterval, Clock clock) {
+    this.userApi = userApi;
+    this.ttl = ttl;
+    this.missReloadInterval = missReloadInterval.compareTo(ttl) < 0 ? missReloadInterval : ttl;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the Snowflake user names for the email addresses. Email addresses without a Snowflake user are skipped.
+   */
+  public List<String> getUserNames(Collection<String> emailAddresses) {
+    var normalizedEmailAddresses = emailAddresses.stream()
+        .filter(email -> email != null && !email.isBlank())
+        .map(email -> email.toLowerCase(Locale.ROOT))
+        .distinct()
+        .toList();
+    if (normalizedEmailAddresses.isEmpty()) {
+      return List.of();
+    }
+
+    reloadIfLoadedBefore(clock.instant().minus(ttl));
+    var index = userNamesByEmail;
+    if (!index.keySet().containsAll(normalizedEmailAddresses)) {
+      reloadIfLoadedBefore(clock.instant().minus(missReloadInterval));
+      index = userNamesByEmail;
+    }
+
+    var userNames = new ArrayList<String>();
+    for (var email : normalizedEmailAddresses) {
+      var userNamesForEmail = index.get(email);
+      if (userNamesForEmail == null) {
+        log.info("No Snowflake user found for email address {}", email);
+        continue;
+      }
+      userNames.addAll(userNamesForEmail);
+    }
+    return userNames;
+  }
+
+  private synchronized void reloadIfLoadedBefore(Instant instant) {
+    if (loadedAt.isAfter(instant)) {
+      return;
+    }
+    log.info("Loading Snowflake users");
+    // Use SCIM2 API instead?
+    List<User> allUsers = userApi.listUsers(null, null, null, null);
+    var index = new HashMap<String, List<String>>(allUsers.size() * 4 / 3 + 1);
+    for (var user : allUsers) {
+      if (user.getEmail() == null || user.getEmail().isBlank()) {
+        continue;
+      }
+      index.computeIfAbsent(user.getEmail().toLowerCase(Locale.ROOT), email -> new ArrayList<>(1)).add(user.getName());
+    }
+    userNamesByEmail = index;
+    loadedAt = clock.instant();
+    log.info("Loaded {} Snowflake users with email address", index.size());
+  }
+
+}
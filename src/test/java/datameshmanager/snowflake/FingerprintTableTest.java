@@ -0,0 +1,180 @@
+package datameshmanager.snowflake;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class FingerprintTableTest {
+
+  /**
+   * A key whose home slot in a table of the initial capacity 16 is {@code home}, distinct for every {@code n}.
+   */
+  private static long keyAt(int home, int n) {
+    return ((long) (n + 1) << 32) | home;
+  }
+
+  @Test
+  void putGetAndUpdate() {
+    var table = new FingerprintTable();
+    var key = FingerprintTable.hash("snowflake-account-DB-SCHEMA-TABLE");
+
+    assertThat(table.contains(key)).isFalse();
+    assertThat(table.get(key, -1)).isEqualTo(-1L);
+
+    table.put(key, 42);
+    table.put(key, 43);
+
+    assertThat(table.contains(key)).isTrue();
+    assertThat(table.get(key, -1)).isEqualTo(43L);
+    assertThat(table.size()).isEqualTo(1);
+  }
+
+  @Test
+  void hashIsStableAndNeverEmpty() {
+    assertThat(FingerprintTable.hash("a")).isEqualTo(FingerprintTable.hash("a"));
+    assertThat(FingerprintTable.hash("a")).isNotEqualTo(FingerprintTable.hash("b"));
+    assertThat(FingerprintTable.hash("")).isNotEqualTo(0L);
+  }
+
+  @Test
+  void removeShiftsBackTheFollowingEntriesOfTheProbeSequence() {
+    var table = new FingerprintTable();
+    var first = keyAt(5, 0);
+    var second = keyAt(5, 1);
+    var third = keyAt(5, 2);
+    table.put(first, 1);
+    table.put(second, 2);
+    table.put(third, 3);
+
+    table.remove(first);
+
+    assertThat(table.contains(first)).isFalse();
+    assertThat(table.get(second, -1)).isEqualTo(2L);
+    assertThat(table.get(third, -1)).isEqualTo(3L);
+    assertThat(table.size()).isEqualTo(2);
+  }
+
+  @Test
+  void removeInTheMiddleOfAChainKeepsTheEntriesOfOtherHomeSlots() {
+    var table = new FingerprintTable();
+    var atFive = keyAt(5, 0);
+    var atFiveToo = keyAt(5, 1);
+    // probes past slot 6, which is taken by the second key of home slot 5
+    var atSix = keyAt(6, 0);
+    var atSeven = keyAt(7, 0);
+    table.put(atFive, 1);
+    table.put(atFiveToo, 2);
+    table.put(atSix, 3);
+    table.put(atSeven, 4);
+
+    table.remove(atFiveToo);
+
+    assertThat(table.get(atFive, -1)).isEqualTo(1L);
+    assertThat(table.get(atSix, -1)).isEqualTo(3L);
+    assertThat(table.get(atSeven, -1)).isEqualTo(4L);
+
+    table.remove(atFive);
+
+    assertThat(table.get(atSix, -1)).isEqualTo(3L);
+    assertThat(table.get(atSeven, -1)).isEqualTo(4L);
+    assertThat(table.size()).isEqualTo(2);
+  }
+
+  @Test
+  void removeShiftsBackAcrossTheEndOfTheArray() {
+    var table = new FingerprintTable();
+    var keys = new long[] {keyAt(15, 0), keyAt(15, 1), keyAt(15, 2), keyAt(0, 0)};
+    for (int i = 0; i < keys.length; i++) {
+      table.put(keys[i], i);
+    }
+
+    table.remove(keys[0]);
+
+    for (int i = 1; i < keys.length; i++) {
+      assertThat(table.get(keys[i], -1)).isEqualTo((long) i);
+    }
+    assertThat(table.contains(keys[0])).isFalse();
+  }
+
+  @Test
+  void removeMovesTheSeenMarkWithTheEntry() {
+    var table = new FingerprintTable();
+    var first = keyAt(3, 0);
+    var second = keyAt(3, 1);
+    table.put(first, 1);
+    table.put(second, 2);
+    assertThat(table.markSeen(second)).isTrue();
+
+    table.remove(first);
+
+    assertThat(table.isSeen(second)).isTrue();
+    assertThat(table.markSeen(second)).isFalse();
+    table.put(first, 1);
+    assertThat(table.isSeen(first)).isFalse();
+  }
+
+  @Test
+  void markSeenOnlyOncePerEntry() {
+    var table = new FingerprintTable();
+    var key = FingerprintTable.hash("id");
+
+    assertThat(table.markSeen(key)).isFalse();
+    table.put(key, 1);
+    assertThat(table.markSeen(key)).isTrue();
+    assertThat(table.markSeen(key)).isFalse();
+    assertThat(table.isSeen(key)).isTrue();
+  }
+
+  @Test
+  void rehashKeepsValuesAndSeenMarks() {
+    var table = new FingerprintTable();
+    for (int i = 0; i < 1000; i++) {
+      var key = FingerprintTable.hash("id-" + i);
+      table.put(key, i);
+      if (i % 3 == 0) {
+        table.markSeen(key);
+      }
+    }
+
+    assertThat(table.size()).isEqualTo(1000);
+    for (int i = 0; i < 1000; i++) {
+      var key = FingerprintTable.hash("id-" + i);
+      assertThat(table.get(key, -1)).isEqualTo((long) i);
+      assertThat(table.isSeen(key)).isEqualTo(i % 3 == 0);
+    }
+  }
+
+  @Test
+  void behavesLikeAMapUnderRandomPutsAndRemoves() {
+    var random = new Random(17);
+    var table = new FingerprintTable();
+    var expected = new HashMap<Long, Long>();
+    var seen = new HashSet<Long>();
+    for (int i = 0; i < 200_000; i++) {
+      // few distinct keys with clustered home slots, so that chains are long and removes shift often
+      long key = keyAt(random.nextInt(64), random.nextInt(32));
+      switch (random.nextInt(4)) {
+        case 0, 1 -> {
+          table.put(key, i);
+          expected.put(key, (long) i);
+        }
+        case 2 -> {
+          table.remove(key);
+          expected.remove(key);
+          seen.remove(key);
+        }
+        default -> {
+          assertThat(table.markSeen(key)).isEqualTo(expected.containsKey(key) && seen.add(key));
+        }
+      }
+      long probe = keyAt(random.nextInt(64), random.nextInt(32));
+      assertThat(table.get(probe, -1)).isEqualTo(expected.getOrDefault(probe, -1L));
+      assertThat(table.isSeen(probe)).isEqualTo(seen.contains(probe));
+    }
+    assertThat(table.size()).isEqualTo(expected.size());
+  }
+
+}
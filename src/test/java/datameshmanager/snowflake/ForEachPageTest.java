@@ -0,0 +1,103 @@
+package datameshmanager.snowflake;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Paging of {@link SnowflakeAssetsProvider#forEachPage(Integer, BiFunction, Function, java.util.function.Consumer)} against a
+ * listing that, like Snowflake, is ordered by name and starts at the first object named {@code fromName}.
+ */
+class ForEachPageTest {
+
+  private record Listed(String name, int version) {
+
+  }
+
+  private static List<Listed> objects(String... names) {
+    var objects = new ArrayList<Listed>();
+    for (int i = 0; i < names.length; i++) {
+      objects.add(new Listed(names[i], i));
+    }
+    return objects;
+  }
+
+  private static List<Listed> crawl(List<Listed> objects, Integer pageSize, List<String> fromNames) {
+    BiFunction<Integer, String, List<Listed>> fetchPage = (showLimit, fromName) -> {
+      fromNames.add(fromName);
+      var page = objects.stream()
+          .filter(object -> fromName == null || object.name().compareTo(fromName) >= 0)
+          .limit(showLimit != null ? showLimit : Long.MAX_VALUE)
+          .toList();
+      return new ArrayList<>(page);
+    };
+    var crawled = new ArrayList<Listed>();
+    SnowflakeAssetsProvider.forEachPage(pageSize, fetchPage, Listed::name, crawled::add);
+    return crawled;
+  }
+
+  @Test
+  void withoutPageSizeListsAtOnce() {
+    var objects = objects("A", "B", "C");
+    var fromNames = new ArrayList<String>();
+
+    assertThat(crawl(objects, null, fromNames)).isEqualTo(objects);
+    assertThat(fromNames).containsExactly((String) null);
+  }
+
+  @Test
+  void continuesAtTheLastNameWithoutRepeatingIt() {
+    var objects = objects("A", "B", "C", "D", "E");
+    var fromNames = new ArrayList<String>();
+
+    assertThat(crawl(objects, 2, fromNames)).isEqualTo(objects);
+    assertThat(fromNames).containsExactly(null, "B", "C", "D", "E");
+  }
+
+  @Test
+  void stopsAfterAFullLastPage() {
+    var objects = objects("A", "B", "C", "D");
+    var fromNames = new ArrayList<String>();
+
+    assertThat(crawl(objects, 2, fromNames)).isEqualTo(objects);
+    // the page starting at D only holds the already seen D
+    assertThat(fromNames).containsExactly(null, "B", "C", "D");
+  }
+
+  @Test
+  void pageBoundaryOnADuplicateNameSkipsOnlyTheSeenObjects() {
+    // with history, a dropped and a current table can have the same name
+    var objects = objects("A", "B", "B", "C", "D");
+    var fromNames = new ArrayList<String>();
+
+    assertThat(crawl(objects, 3, fromNames)).isEqualTo(objects);
+    assertThat(fromNames).containsExactly(null, "B", "C");
+  }
+
+  @Test
+  void pageBoundaryInsideDuplicatesSkipsOnlyTheSeenObjects() {
+    // the first page ends after two of the three B, the second page starts at the first B again
+    var objects = objects("A", "A", "B", "B", "B", "C");
+    var fromNames = new ArrayList<String>();
+
+    assertThat(crawl(objects, 4, fromNames)).isEqualTo(objects);
+    assertThat(fromNames).containsExactly(null, "B", "C");
+  }
+
+  @Test
+  void stopsWhenAFullPageHasASingleName() {
+    var objects = objects("A", "B", "B", "B", "C");
+    var fromNames = new ArrayList<String>();
+
+    var crawled = crawl(objects, 2, fromNames);
+
+    // the listing cannot advance past B, as it always starts at the first B
+    assertThat(crawled).isEqualTo(objects.subList(0, 3));
+    assertThat(fromNames).containsExactly(null, "B");
+  }
+
+}
@@ -0,0 +1,108 @@
+package datameshmanager.snowflake;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class NameFilterTest {
+
+  @Test
+  void withoutRulesEverythingMatches() {
+    var filter = NameFilter.of(null, List.of(" "));
+
+    assertThat(filter.matches("SALES")).isTrue();
+    assertThat(filter.matches(null)).isTrue();
+    assertThat(filter.like()).isNull();
+  }
+
+  @Test
+  void globMatchesTheWholeNameIgnoringCase() {
+    var filter = NameFilter.of(List.of("SALES_*"), null);
+
+    assertThat(filter.matches("SALES_EU")).isTrue();
+    assertThat(filter.matches("sales_eu")).isTrue();
+    assertThat(filter.matches("SALES_")).isTrue();
+    assertThat(filter.matches("PRE_SALES_EU")).isFalse();
+    assertThat(filter.matches(null)).isFalse();
+  }
+
+  @Test
+  void questionMarkMatchesASingleCharacter() {
+    var filter = NameFilter.of(List.of("STG?"), null);
+
+    assertThat(filter.matches("STG1")).isTrue();
+    assertThat(filter.matches("STG")).isFalse();
+    assertThat(filter.matches("STG12")).isFalse();
+  }
+
+  @Test
+  void underscoreAndPercentAreLiteralInGlobs() {
+    var filter = NameFilter.of(List.of("STG_*", "A%B"), null);
+
+    assertThat(filter.matches("STG_ORDERS")).isTrue();
+    assertThat(filter.matches("STGXORDERS")).isFalse();
+    assertThat(filter.matches("A%B")).isTrue();
+    assertThat(filter.matches("AXB")).isFalse();
+    assertThat(filter.matches("AB")).isFalse();
+  }
+
+  @Test
+  void regexCharactersAreLiteralInGlobs() {
+    var filter = NameFilter.of(List.of("A.B+"), null);
+
+    assertThat(filter.matches("A.B+")).isTrue();
+    assertThat(filter.matches("AXB")).isFalse();
+    assertThat(filter.matches("A.BB")).isFalse();
+  }
+
+  @Test
+  void regexRulesMatchTheWholeName() {
+    var filter = NameFilter.of(List.of("regex:STG_\\d+"), null);
+
+    assertThat(filter.matches("stg_42")).isTrue();
+    assertThat(filter.matches("STG_42_OLD")).isFalse();
+    assertThat(filter.like()).isNull();
+  }
+
+  @Test
+  void excludesWinOverIncludes() {
+    var filter = NameFilter.of(List.of("SALES_*"), List.of("*_DEV", "regex:.*_TMP"));
+
+    assertThat(filter.matches("SALES_EU")).isTrue();
+    assertThat(filter.matches("SALES_DEV")).isFalse();
+    assertThat(filter.matches("sales_tmp")).isFalse();
+  }
+
+  @Test
+  void excludesAloneKeepTheOtherNames() {
+    var filter = NameFilter.of(null, List.of("SCRATCH_*"));
+
+    assertThat(filter.matches("SALES")).isTrue();
+    assertThat(filter.matches("SCRATCH_1")).isFalse();
+    assertThat(filter.like()).isNull();
+  }
+
+  @Test
+  void singleGlobIsTranslatedToLike() {
+    assertThat(NameFilter.of(List.of(" SALES_* "), null).like()).isEqualTo("SALES_%");
+    assertThat(NameFilter.of(List.of("STG?"), null).like()).isEqualTo("STG_");
+    assertThat(NameFilter.of(List.of("ORDERS"), null).like()).isEqualTo("ORDERS");
+  }
+
+  @Test
+  void likeIsOnlyUsedForASingleGlob() {
+    assertThat(NameFilter.of(List.of("SALES_*", "MARKETING"), null).like()).isNull();
+    assertThat(NameFilter.of(List.of("regex:SALES_.*"), null).like()).isNull();
+  }
+
+  @Test
+  void likeMayMatchMoreThanTheGlob() {
+    // "_" is a wildcard in LIKE, so a listed name must still be checked
+    var filter = NameFilter.of(List.of("STG_*"), null);
+
+    assertThat(filter.like()).isEqualTo("STG_%");
+    assertThat(filter.matches("STGX")).isFalse();
+  }
+
+}